@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.App;
+import be.belgif.dw.ldf.helpers.SkosGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
+
+/**
+ * Generated native stores for the benchmarks.
+ * 
+ * Stores are kept in the directory set by the "ldf.bench.dir" system property,
+ * so they are only generated once for each size and set of indexes.
+ * 
+ * @author Bart.Hanssens
+ */
+public class BenchmarkStore {
+	public final static String PREFIX = "http://localhost/";
+	// number of named graphs / vocabularies
+	public final static int GRAPHS = 4;
+	// changing the seed or any other setting invalidates the generated stores
+	private final static long SEED = 42;
+
+	private final static String DONE = "complete";
+
+	static {
+		// must be set before the query helpers are loaded
+		App.setPrefix(PREFIX);
+	}
+
+	/**
+	 * Get base directory
+	 * 
+	 * @return directory
+	 */
+	public static Path getDir() {
+		return Paths.get(System.getProperty("ldf.bench.dir", 
+						Paths.get(System.getProperty("java.io.tmpdir"), "ldf-bench").toString()));
+	}
+
+	/**
+	 * Get generator, concepts are evenly spread over the vocabularies
+	 * 
+	 * @param concepts total number of concepts
+	 * @return generator
+	 */
+	private static SkosGenerator getGenerator(int concepts) {
+		SkosGenerator gen = new SkosGenerator(PREFIX, SEED);
+		gen.setGraphs(GRAPHS);
+		gen.setConcepts((concepts + GRAPHS - 1) / GRAPHS);
+		gen.setLanguages("en", "fr", "nl");
+		return gen;
+	}
+
+	/**
+	 * Get vocabulary name of a concept
+	 * 
+	 * @param concept concept number
+	 * @return vocabulary name
+	 */
+	public static String getVocab(int concept) {
+		return getGenerator(0).getVocab(concept % GRAPHS);
+	}
+
+	/**
+	 * Get IRI of a concept
+	 * 
+	 * @param concept concept number
+	 * @return IRI
+	 */
+	public static IRI getConcept(int concept) {
+		return getGenerator(0).getConcept(concept % GRAPHS, concept / GRAPHS);
+	}
+
+	/**
+	 * Get English preferred label of a concept
+	 * 
+	 * @param concept concept number
+	 * @return literal
+	 */
+	public static Literal getLabel(int concept) {
+		return getGenerator(0).getPrefLabel(concept % GRAPHS, concept / GRAPHS, 0);
+	}
+
+	/**
+	 * Write generated concepts to a file, if it does not exist yet
+	 * 
+	 * @param concepts number of concepts
+	 * @param fmt RDF format
+	 * @return path to file
+	 * @throws IOException 
+	 */
+	public static Path getFile(int concepts, RDFFormat fmt) throws IOException {
+		Path p = getDir().resolve("skos-" + concepts + "." + fmt.getDefaultFileExtension());
+		if (!Files.exists(p)) {
+			Files.createDirectories(getDir());
+			Path tmp = Files.createTempFile(getDir(), "gen", ".tmp");
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+				getGenerator(concepts).generate(Rio.createWriter(fmt, out), fmt.supportsContexts());
+			}
+			Files.move(tmp, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Open (and generate, if needed) a native store
+	 * 
+	 * @param concepts number of concepts
+	 * @param indexes triple indexes, separated by dashes
+	 * @return initialized repository
+	 * @throws IOException 
+	 */
+	public static Repository open(int concepts, String indexes) throws IOException {
+		String spec = indexes.replace('-', ',');
+		Path dir = getDir().resolve("skos-" + concepts + "-" + indexes);
+		boolean exists = Files.exists(dir.resolve(DONE));
+
+		Repository repo = new SailRepository(new NativeStore(dir.toFile(), spec));
+		repo.initialize();
+		if (!exists) {
+			try (RepositoryConnection conn = repo.getConnection()) {
+				conn.clear();
+				conn.begin();
+				getGenerator(concepts).generate(new AbstractRDFHandler() {
+					@Override
+					public void handleStatement(Statement st) {
+						conn.add(st);
+					}
+				}, true);
+				conn.commit();
+			}
+			Files.createFile(dir.resolve(DONE));
+		}
+		return repo;
+	}
+
+	/**
+	 * Create an empty native store in a new temporary directory
+	 * 
+	 * @param indexes triple indexes, separated by dashes
+	 * @return initialized repository
+	 * @throws IOException 
+	 */
+	public static Repository create(String indexes) throws IOException {
+		Files.createDirectories(getDir());
+		Path dir = Files.createTempDirectory(getDir(), "empty");
+		Repository repo = new SailRepository(new NativeStore(dir.toFile(), indexes.replace('-', ',')));
+		repo.initialize();
+		return repo;
+	}
+
+	/**
+	 * Shut down a store and delete its files
+	 * 
+	 * @param repo repository
+	 * @throws IOException 
+	 */
+	public static void delete(Repository repo) throws IOException {
+		Path dir = repo.getDataDir().toPath();
+		repo.shutDown();
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.query.TripleCounter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of counting the results of a triple pattern (Hydra total items),
+ * for each counting mode.
+ * 
+ * @author Bart.Hanssens
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountBenchmark {
+	@Param({"100000"})
+	public int concepts;
+
+	@Param({"spoc-posc"})
+	public String indexes;
+
+	@Param({"EXACT", "CACHED", "ESTIMATED"})
+	public TripleCounter.Mode mode;
+
+	@Param({"none", "p", "o", "po"})
+	public String shape;
+
+	@Param({"false", "true"})
+	public boolean scoped;
+
+	private Repository repo;
+	private RepositoryConnection conn;
+	private IRI p;
+	private Value o;
+	private IRI graph;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		repo = BenchmarkStore.open(concepts, indexes);
+		conn = repo.getConnection();
+		TripleCounter.configure(repo, mode, 10000);
+
+		int concept = concepts / 2;
+		p = shape.contains("p") ? SKOS.PREF_LABEL : null;
+		o = shape.contains("o") ? BenchmarkStore.getLabel(concept) : null;
+		graph = scoped 
+			? repo.getValueFactory().createIRI(BenchmarkStore.PREFIX + "graph" 
+											+ BenchmarkStore.getVocab(concept)) 
+			: null;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		conn.close();
+		repo.shutDown();
+	}
+
+	@Benchmark
+	public int count() {
+		return TripleCounter.count(conn, null, p, o, graph, false);
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.App;
+import be.belgif.dw.ldf.TripleStoreConfig;
+
+import io.dropwizard.lifecycle.ServerLifecycleListener;
+import io.dropwizard.setup.Environment;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jetty.server.Server;
+
+/**
+ * LDF application running in the same JVM, on free ports, with its store in
+ * a given directory.
+ * 
+ * Other settings can be overridden with "dw." system properties, 
+ * e.g. -Ddw.tripleStore.fragmentCacheSize=0
+ * 
+ * @author Bart.Hanssens
+ */
+public class EmbeddedApp extends App {
+	private final Path dir;
+	private final String indexes;
+	private final int port;
+	private final int adminPort;
+	private volatile Server server;
+
+	/**
+	 * Get a free TCP port
+	 * 
+	 * @return port number
+	 * @throws IOException 
+	 */
+	private static int freePort() throws IOException {
+		try (ServerSocket s = new ServerSocket(0)) {
+			return s.getLocalPort();
+		}
+	}
+
+	/**
+	 * Get base URL of the application
+	 * 
+	 * @return URL ending with a slash
+	 */
+	public String getUrl() {
+		return "http://localhost:" + port + "/";
+	}
+
+	/**
+	 * Get base URL of the admin interface
+	 * 
+	 * @return URL ending with a slash
+	 */
+	public String getAdminUrl() {
+		return "http://localhost:" + adminPort + "/";
+	}
+
+	/**
+	 * Write configuration file and start the server
+	 * 
+	 * @throws Exception 
+	 */
+	public void start() throws Exception {
+		for (String sub: new String[] { "rdf", "import", "export", "lucene", "snap" }) {
+			Files.createDirectories(dir.resolve(sub));
+		}
+		List<String> yml = Arrays.asList(
+			"server:",
+			"  applicationConnectors:",
+			"    - type: http",
+			"      port: " + port,
+			"  adminConnectors:",
+			"    - type: http",
+			"      port: " + adminPort,
+			"  requestLog:",
+			"    appenders: []",
+			"logging:",
+			"  level: WARN",
+			"  appenders:",
+			"    - type: console",
+			"      target: stderr",
+			"tripleStore:",
+			"  rdfDir: " + dir.resolve("rdf"),
+			"  importDir: " + dir.resolve("import"),
+			"  exportDir: " + dir.resolve("export"),
+			"  luceneDir: " + dir.resolve("lucene"),
+			"  snapshotDir: " + dir.resolve("snap"),
+			"  sitePrefix: " + getUrl(),
+			"  tripleIndexes: " + indexes);
+		Path config = dir.resolve("config.yml");
+		Files.write(config, yml, StandardCharsets.UTF_8);
+		
+		run("server", config.toString());
+		if (server == null) {
+			throw new IllegalStateException("Server not started");
+		}
+	}
+
+	/**
+	 * Stop the server and close the store
+	 * 
+	 * @throws Exception 
+	 */
+	public void stop() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Override
+	public void run(TripleStoreConfig config, Environment env) {
+		super.run(config, env);
+		env.lifecycle().addServerLifecycleListener(new ServerLifecycleListener() {
+			@Override
+			public void serverStarted(Server s) {
+				server = s;
+			}
+		});
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param dir directory for store, index and configuration file
+	 * @param indexes triple indexes, separated by commas
+	 * @throws IOException 
+	 */
+	public EmbeddedApp(Path dir, String indexes) throws IOException {
+		this.dir = dir;
+		this.indexes = indexes;
+		this.port = freePort();
+		this.adminPort = freePort();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.helpers.BulkLoader;
+import be.belgif.dw.ldf.tasks.Job;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.util.RDFInserter;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to import a generated N-Triples file, using a single transaction 
+ * or the parallel bulk loader.
+ * 
+ * @author Bart.Hanssens
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ImportBenchmark {
+	@Param({"100000"})
+	public int concepts;
+
+	@Param({"spoc-posc"})
+	public String indexes;
+
+	// single transaction, or bulk loader with a number of parser threads
+	@Param({"inserter", "bulk-1", "bulk-4"})
+	public String loader;
+
+	@Param({"100000"})
+	public int batch;
+
+	private Path file;
+	private IRI ctx;
+	private Repository repo;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		file = BenchmarkStore.getFile(concepts, RDFFormat.NTRIPLES);
+		ctx = SimpleValueFactory.getInstance()
+							.createIRI(BenchmarkStore.PREFIX + "graphimport");
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration() throws IOException {
+		repo = BenchmarkStore.create(indexes);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() throws IOException {
+		BenchmarkStore.delete(repo);
+	}
+
+	@Benchmark
+	public long load() throws IOException {
+		if (loader.startsWith("bulk-")) {
+			int threads = Integer.parseInt(loader.substring(5));
+			BulkLoader bulk = new BulkLoader(repo, threads, batch, Job.NONE);
+			return bulk.load(Collections.singletonList(file), ctx, false);
+		}
+		try (RepositoryConnection conn = repo.getConnection();
+			InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			RDFInserter inserter = new RDFInserter(conn);
+			inserter.enforceContext(ctx);
+			RDFParser parser = Rio.createParser(RDFFormat.NTRIPLES);
+			parser.setRDFHandler(inserter);
+			conn.begin();
+			parser.parse(in, file.toUri().toString());
+			conn.commit();
+			return conn.size(ctx);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.helpers.RDFStream;
+import be.belgif.dw.ldf.query.FragmentIndex;
+import be.belgif.dw.ldf.query.QueryHelperLDF;
+import be.belgif.dw.ldf.tasks.Job;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Latency of getting one linked data fragment, for each binding shape,
+ * shallow and deep pages, scoped to a vocabulary or not, using different
+ * engines and triple indexes.
+ * 
+ * @author Bart.Hanssens
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LdfBenchmark {
+	@Param({"100000"})
+	public int concepts;
+
+	// triple indexes, separated by dashes
+	@Param({"spoc-posc", "spoc-posc-cspo-cpos"})
+	public String indexes;
+
+	// bound positions: subject, predicate and/or object
+	@Param({"none", "s", "p", "o", "sp", "po", "so", "spo"})
+	public String shape;
+
+	@Param({"1", "50"})
+	public String page;
+
+	// restrict to the named graph of one vocabulary
+	@Param({"false", "true"})
+	public boolean scoped;
+
+	// direct (getStatements), sparql, or snapshot (compiled read-only graph)
+	@Param({"direct", "sparql", "snapshot"})
+	public String engine;
+
+	private Repository repo;
+	private String s;
+	private String p;
+	private String o;
+	private String vocab;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		repo = BenchmarkStore.open(concepts, indexes);
+
+		int concept = concepts / 2;
+		s = shape.contains("s") ? BenchmarkStore.getConcept(concept).stringValue() : null;
+		p = shape.contains("p") ? SKOS.PREF_LABEL.stringValue() : null;
+		o = shape.contains("o") 
+				? NTriplesUtil.toNTriplesString(BenchmarkStore.getLabel(concept)) : null;
+		vocab = scoped ? BenchmarkStore.getVocab(concept) : "";
+
+		QueryHelperLDF.setDirect(!engine.equals("sparql"));
+		if (engine.equals("snapshot")) {
+			FragmentIndex.configure(BenchmarkStore.getDir().resolve("snap-" + indexes));
+			if (scoped) {
+				FragmentIndex.compile(repo, BenchmarkStore.PREFIX + "graph" + vocab, Job.NONE);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FragmentIndex.configure(null);
+		repo.shutDown();
+	}
+
+	@Benchmark
+	public void getLDF(Blackhole bh) {
+		try (RDFStream stream = QueryHelperLDF.getLDF(repo, s, p, o, vocab, page, null)) {
+			bh.consume(stream.getHead());
+			while (stream.getBody().hasNext()) {
+				bh.consume(stream.getBody().next());
+			}
+		}
+	}
+}
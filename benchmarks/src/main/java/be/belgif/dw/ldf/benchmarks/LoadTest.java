@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.helpers.SkosGenerator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end HTTP load test against the LDF application running in the same JVM.
+ * 
+ * A closed-loop client waits for each response before sending the next request,
+ * optionally paced to a target rate, and measures the response time.
+ * An open-loop client sends requests on a fixed schedule, and measures latency
+ * from the intended start, so a slow server is not hidden by fewer requests.
+ * 
+ * Options are given as --name=value, see {@link #usage()}.
+ * 
+ * @author Bart.Hanssens
+ */
+public class LoadTest {
+	private final static String RESULTS = "ldf-loadtest.json";
+	private final static String DONE = "complete";
+
+	private final static com.sun.management.ThreadMXBean THREADS = 
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Latencies and counters of one client thread
+	 */
+	private static class Recorder {
+		private long[] latencies = new long[1 << 16];
+		private int count;
+		private long errors;
+		private long bytes;
+		private long allocated;
+
+		/**
+		 * Add latency of a successful request
+		 * 
+		 * @param nanos latency in nanoseconds
+		 */
+		private void add(long nanos) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+		}
+	}
+
+	/**
+	 * Print usage
+	 */
+	private static void usage() {
+		System.err.println("Options (--name=value):");
+		System.err.println("  mode       closed or open (default closed)");
+		System.err.println("  threads    client threads / connections (default 8)");
+		System.err.println("  rate       target requests per second, required for open (default 0 = max)");
+		System.err.println("  duration   measurement in seconds (default 30)");
+		System.err.println("  warmup     warmup in seconds (default 10)");
+		System.err.println("  concepts   generated concepts per graph (default 2000)");
+		System.err.println("  graphs     generated graphs (default 4)");
+		System.err.println("  seed       random seed for data and URLs (default 1)");
+		System.err.println("  indexes    triple indexes (default spoc,posc,cspo,cpos)");
+		System.err.println("  scoped     true to request fragments per vocabulary (default false)");
+		System.err.println("  dir        store directory, kept and reused (default temporary)");
+		System.err.println("  urls       file with [weight] path lines (default generated mix)");
+		System.err.println("  accept     media type (default application/n-quads)");
+		System.err.println("  out        result file (default " + RESULTS + ")");
+	}
+
+	/**
+	 * Parse command line options
+	 * 
+	 * @param args arguments
+	 * @return map of options, including defaults
+	 */
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> opts = new LinkedHashMap<>();
+		opts.put("mode", "closed");
+		opts.put("threads", "8");
+		opts.put("rate", "0");
+		opts.put("duration", "30");
+		opts.put("warmup", "10");
+		opts.put("concepts", "2000");
+		opts.put("graphs", "4");
+		opts.put("seed", "1");
+		opts.put("indexes", "spoc,posc,cspo,cpos");
+		opts.put("scoped", "false");
+		opts.put("accept", "application/n-quads");
+		opts.put("out", RESULTS);
+		for (String arg: args) {
+			int eq = arg.indexOf('=');
+			String name = (arg.startsWith("--") && eq > 2) ? arg.substring(2, eq) : "";
+			if (!opts.containsKey(name) && !name.equals("dir") && !name.equals("urls")) {
+				usage();
+				throw new IllegalArgumentException("Invalid option " + arg);
+			}
+			opts.put(name, arg.substring(eq + 1));
+		}
+		return opts;
+	}
+
+	/**
+	 * Send a request and read the full response
+	 * 
+	 * @param url URL
+	 * @param method HTTP method
+	 * @param accept media type
+	 * @param rec recorder for size and errors, or null
+	 * @return response body
+	 * @throws IOException 
+	 */
+	private static byte[] request(String url, String method, String accept, Recorder rec) 
+			throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setRequestMethod(method);
+		conn.setRequestProperty("Accept", accept);
+		conn.setConnectTimeout(30_000);
+		conn.setReadTimeout(120_000);
+		int status = conn.getResponseCode();
+		InputStream in = (status < 400) ? conn.getInputStream() : conn.getErrorStream();
+		byte[] buf = new byte[8192];
+		byte[] body = null;
+		long size = 0;
+		if (in != null) {
+			try (InputStream is = in) {
+				// only keep the (short) responses of admin tasks
+				int n;
+				while ((n = is.read(buf)) > 0) {
+					if (rec == null) {
+						body = (body == null) ? Arrays.copyOf(buf, n) 
+									: concat(body, buf, n);
+					}
+					size += n;
+				}
+			}
+		}
+		if (status != 200) {
+			throw new IOException("HTTP " + status + " for " + url);
+		}
+		if (rec != null) {
+			rec.bytes += size;
+		}
+		return (body != null) ? body : new byte[0];
+	}
+
+	/**
+	 * Concatenate byte arrays
+	 * 
+	 * @param a first array
+	 * @param b second array
+	 * @param n number of bytes of the second array
+	 * @return new array
+	 */
+	private static byte[] concat(byte[] a, byte[] b, int n) {
+		byte[] c = Arrays.copyOf(a, a.length + n);
+		System.arraycopy(b, 0, c, a.length, n);
+		return c;
+	}
+
+	/**
+	 * Wait until a point in time
+	 * 
+	 * @param deadline System.nanoTime value
+	 */
+	private static void waitUntil(long deadline) {
+		long now;
+		while ((now = System.nanoTime()) < deadline) {
+			LockSupport.parkNanos(deadline - now);
+		}
+	}
+
+	/**
+	 * Sum of the bytes allocated by all live threads.
+	 * Threads that are not alive anymore (or not yet) are not included.
+	 * 
+	 * @return bytes
+	 */
+	private static long allocated() {
+		long total = 0;
+		for (long b: THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+			total += Math.max(0, b);
+		}
+		return total;
+	}
+
+	/**
+	 * Get total count and time of garbage collections
+	 * 
+	 * @return count and time in milliseconds
+	 */
+	private static long[] gc() {
+		long[] res = new long[2];
+		for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			res[0] += Math.max(0, gc.getCollectionCount());
+			res[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return res;
+	}
+
+	/**
+	 * Run the client threads
+	 * 
+	 * @param base base URL
+	 * @param mix URL mix
+	 * @param opts options
+	 * @param seconds duration
+	 * @return recorders, one per thread
+	 * @throws InterruptedException 
+	 */
+	private static List<Recorder> run(String base, UrlMix mix, Map<String, String> opts, 
+										int seconds) throws InterruptedException {
+		boolean open = opts.get("mode").equals("open");
+		int threads = Integer.parseInt(opts.get("threads"));
+		double rate = Double.parseDouble(opts.get("rate"));
+		long seed = Long.parseLong(opts.get("seed"));
+		String accept = opts.get("accept");
+		if (open && rate <= 0) {
+			throw new IllegalArgumentException("Open loop requires a rate");
+		}
+
+		long start = System.nanoTime() + 10_000_000;
+		long end = start + seconds * 1_000_000_000L;
+		// open loop: shared schedule, closed loop: pacing per thread
+		AtomicLong seq = new AtomicLong();
+		long interval = (rate <= 0) ? 0 
+					: (long) ((open ? 1 : threads) * 1_000_000_000L / rate);
+
+		List<Recorder> recs = new ArrayList<>();
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Recorder rec = new Recorder();
+			Random r = new Random(seed + t);
+			recs.add(rec);
+			workers.add(new Thread(() -> {
+				long id = Thread.currentThread().getId();
+				long alloc = THREADS.getThreadAllocatedBytes(id);
+				long next = start;
+				while (true) {
+					long intended;
+					if (open) {
+						intended = start + seq.getAndIncrement() * interval;
+					} else if (interval > 0) {
+						intended = next;
+						next += interval;
+					} else {
+						intended = Math.max(start, System.nanoTime());
+					}
+					if (intended >= end) {
+						break;
+					}
+					waitUntil(intended);
+					long t0 = open ? intended : System.nanoTime();
+					try {
+						request(base + mix.next(r), "GET", accept, rec);
+						rec.add(System.nanoTime() - t0);
+					} catch (IOException ioe) {
+						rec.errors++;
+					}
+				}
+				rec.allocated = THREADS.getThreadAllocatedBytes(id) - alloc;
+			}, "load-" + t));
+		}
+		for (Thread w: workers) {
+			w.start();
+		}
+		for (Thread w: workers) {
+			w.join();
+		}
+		return recs;
+	}
+
+	/**
+	 * Get percentile from sorted array
+	 * 
+	 * @param sorted sorted latencies
+	 * @param q quantile between 0 and 1
+	 * @return latency in milliseconds
+	 */
+	private static double percentile(long[] sorted, double q) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int i = (int) Math.ceil(q * sorted.length) - 1;
+		return sorted[Math.max(0, i)] / 1e6;
+	}
+
+	/**
+	 * Summarize results
+	 * 
+	 * @param recs recorders
+	 * @param seconds duration
+	 * @param allocated bytes allocated by the server, i.e. threads alive before and after the run
+	 * @param gc garbage collection count and time
+	 * @return map with results
+	 */
+	private static Map<String, Object> summarize(List<Recorder> recs, int seconds, 
+												long allocated, long[] gc) {
+		int n = 0;
+		long errors = 0;
+		long bytes = 0;
+		long client = 0;
+		for (Recorder rec: recs) {
+			n += rec.count;
+			errors += rec.errors;
+			bytes += rec.bytes;
+			client += rec.allocated;
+		}
+		long[] all = new long[n];
+		int pos = 0;
+		long sum = 0;
+		for (Recorder rec: recs) {
+			System.arraycopy(rec.latencies, 0, all, pos, rec.count);
+			pos += rec.count;
+		}
+		Arrays.sort(all);
+		for (long l: all) {
+			sum += l;
+		}
+		// client threads are started and finished within the run, so they are not included
+		long server = Math.max(0, allocated);
+
+		Map<String, Object> lat = new LinkedHashMap<>();
+		lat.put("mean", (n > 0) ? sum / 1e6 / n : 0);
+		lat.put("p50", percentile(all, 0.5));
+		lat.put("p90", percentile(all, 0.9));
+		lat.put("p99", percentile(all, 0.99));
+		lat.put("p999", percentile(all, 0.999));
+		lat.put("max", percentile(all, 1));
+
+		Map<String, Object> alloc = new LinkedHashMap<>();
+		alloc.put("serverBytesPerSecond", server / seconds);
+		alloc.put("serverBytesPerRequest", (n > 0) ? server / n : 0);
+		alloc.put("clientBytesPerSecond", client / seconds);
+
+		Map<String, Object> gcs = new LinkedHashMap<>();
+		gcs.put("count", gc[0]);
+		gcs.put("timeMs", gc[1]);
+
+		Map<String, Object> res = new LinkedHashMap<>();
+		res.put("requests", n);
+		res.put("errors", errors);
+		res.put("throughput", (double) n / seconds);
+		res.put("responseBytesPerSecond", bytes / seconds);
+		res.put("latencyMs", lat);
+		res.put("allocation", alloc);
+		res.put("gc", gcs);
+		return res;
+	}
+
+	/**
+	 * Delete a directory
+	 * 
+	 * @param dir directory
+	 * @throws IOException 
+	 */
+	private static void delete(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * Main
+	 * 
+	 * @param args options
+	 * @throws Exception 
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> opts = parse(args);
+		int concepts = Integer.parseInt(opts.get("concepts"));
+		int graphs = Integer.parseInt(opts.get("graphs"));
+		long seed = Long.parseLong(opts.get("seed"));
+		int duration = Integer.parseInt(opts.get("duration"));
+		int warmup = Integer.parseInt(opts.get("warmup"));
+		String indexes = opts.get("indexes");
+
+		boolean temp = !opts.containsKey("dir");
+		Path dir = temp ? Files.createTempDirectory("ldf-load") : Paths.get(opts.get("dir"));
+		Files.createDirectories(dir);
+
+		EmbeddedApp app = new EmbeddedApp(dir, indexes);
+		app.start();
+		try {
+			SkosGenerator gen = new SkosGenerator(app.getUrl(), seed);
+			gen.setConcepts(concepts);
+			gen.setGraphs(graphs);
+			gen.setLanguages("en", "fr", "nl");
+
+			if (!Files.exists(dir.resolve(DONE))) {
+				System.err.println("Generating data");
+				byte[] out = request(app.getAdminUrl() + "tasks/rdf-generate?load=true&sync=true"
+								+ "&concepts=" + concepts + "&graphs=" + graphs 
+								+ "&languages=en,fr,nl&seed=" + seed, "POST", "text/plain", null);
+				if (!new String(out, StandardCharsets.UTF_8).contains("DONE")) {
+					throw new IOException("Generating data failed");
+				}
+				Files.createFile(dir.resolve(DONE));
+			}
+
+			UrlMix mix = opts.containsKey("urls") 
+							? UrlMix.read(Paths.get(opts.get("urls")))
+							: UrlMix.generate(gen, concepts, graphs, 10_000, seed, 
+									Boolean.parseBoolean(opts.get("scoped")));
+
+			if (warmup > 0) {
+				System.err.println("Warmup");
+				run(app.getUrl(), mix, opts, warmup);
+			}
+			System.err.println("Measuring");
+			long alloc = allocated();
+			long[] gc = gc();
+			List<Recorder> recs = run(app.getUrl(), mix, opts, duration);
+			alloc = allocated() - alloc;
+			long[] gc2 = gc();
+			gc[0] = gc2[0] - gc[0];
+			gc[1] = gc2[1] - gc[1];
+
+			Map<String, Object> res = new LinkedHashMap<>();
+			res.put("settings", new LinkedHashMap<>(opts));
+			res.putAll(summarize(recs, duration, alloc, gc));
+			
+			ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+			Path out = Paths.get(opts.get("out"));
+			mapper.writeValue(out.toFile(), res);
+			System.out.println(mapper.writeValueAsString(res));
+		} finally {
+			app.stop();
+			if (temp) {
+				delete(dir);
+			}
+		}
+	}
+}
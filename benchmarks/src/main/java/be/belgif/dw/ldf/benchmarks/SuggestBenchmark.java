@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.query.LabelIndex;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.repository.Repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of autocomplete lookups in the in-memory label index.
+ * 
+ * @author Bart.Hanssens
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuggestBenchmark {
+	@Param({"100000"})
+	public int concepts;
+
+	// part of a generated label: short prefixes match many labels, long ones only a few
+	@Param({"1", "4", "word", "label"})
+	public String prefix;
+
+	// empty for all languages
+	@Param({"en", ""})
+	public String lang;
+
+	@Param({"10"})
+	public int max;
+
+	private Repository repo;
+	private LabelIndex.Index idx;
+	private String text;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		repo = BenchmarkStore.open(concepts, "spoc-posc");
+		LabelIndex.configure(repo);
+		String graph = BenchmarkStore.PREFIX + "graph" + BenchmarkStore.getVocab(0);
+
+		// a concept in the first vocabulary
+		int concept = concepts / 2 - (concepts / 2) % BenchmarkStore.GRAPHS;
+		String label = BenchmarkStore.getLabel(concept).getLabel();
+		switch (prefix) {
+			case "word": 
+				text = label.substring(0, label.indexOf(' ')); 
+				break;
+			case "label": 
+				text = label; 
+				break;
+			default: 
+				text = label.substring(0, Math.min(label.length(), Integer.parseInt(prefix)));
+		}
+		// build index before measuring
+		idx = LabelIndex.get(graph);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		repo.shutDown();
+	}
+
+	@Benchmark
+	public List<LabelIndex.Suggestion> suggest() {
+		return idx.suggest(text, lang.isEmpty() ? null : lang, max);
+	}
+}
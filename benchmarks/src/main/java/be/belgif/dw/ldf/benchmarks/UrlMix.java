@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.helpers.SkosGenerator;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+/**
+ * Weighted mix of fragment URLs, relative to the base URL of the application.
+ * 
+ * @author Bart.Hanssens
+ */
+public class UrlMix {
+	private final List<String> paths = new ArrayList<>();
+	private final List<Double> weights = new ArrayList<>();
+	private double[] cumulative;
+
+	/**
+	 * Add a path
+	 * 
+	 * @param weight relative weight
+	 * @param path path and query string
+	 */
+	public void add(double weight, String path) {
+		paths.add(path);
+		weights.add(weight);
+		cumulative = null;
+	}
+
+	/**
+	 * Get number of paths
+	 * 
+	 * @return number
+	 */
+	public int size() {
+		return paths.size();
+	}
+
+	/**
+	 * Get a random path, taking the weights into account
+	 * 
+	 * @param r random generator
+	 * @return path
+	 */
+	public String next(Random r) {
+		double[] cum = cumulative;
+		if (cum == null) {
+			cum = new double[weights.size()];
+			double total = 0;
+			for (int i = 0; i < cum.length; i++) {
+				total += weights.get(i);
+				cum[i] = total;
+			}
+			cumulative = cum;
+		}
+		int i = Arrays.binarySearch(cum, r.nextDouble() * cum[cum.length - 1]);
+		return paths.get(Math.min((i < 0) ? -i - 1 : i, cum.length - 1));
+	}
+
+	/**
+	 * Encode query parameter value
+	 * 
+	 * @param s string
+	 * @return URL encoded string
+	 */
+	private static String enc(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Read mix from file, one path per line, optionally preceded by a weight.
+	 * Empty lines and lines starting with # are skipped.
+	 * 
+	 * @param file text file
+	 * @return URL mix
+	 * @throws IOException 
+	 */
+	public static UrlMix read(Path file) throws IOException {
+		UrlMix mix = new UrlMix();
+		for (String line: Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+", 2);
+			if (parts.length == 2) {
+				mix.add(Double.parseDouble(parts[0]), parts[1]);
+			} else {
+				mix.add(1, line);
+			}
+		}
+		if (mix.size() == 0) {
+			throw new IOException("No URLs in " + file);
+		}
+		return mix;
+	}
+
+	/**
+	 * Create a mix of typical fragment requests on generated vocabularies:
+	 * lookups by subject, by label, by concept used as object, 
+	 * and paging through predicates and all triples.
+	 * Scoped requests use the fragments of the vocabulary of the concept.
+	 * 
+	 * @param gen generator used for the data
+	 * @param concepts number of concepts per graph
+	 * @param graphs number of graphs
+	 * @param size number of paths
+	 * @param seed random seed
+	 * @param scoped true to restrict requests to one vocabulary
+	 * @return URL mix
+	 */
+	public static UrlMix generate(SkosGenerator gen, int concepts, int graphs, 
+									int size, long seed, boolean scoped) {
+		UrlMix mix = new UrlMix();
+		Random r = new Random(seed);
+		String pref = enc(SKOS.PREF_LABEL.stringValue());
+		String broader = enc(SKOS.BROADER.stringValue());
+
+		for (int n = 0; n < size; n++) {
+			int g = r.nextInt(graphs);
+			int i = r.nextInt(concepts);
+			String s = enc(gen.getConcept(g, i).stringValue());
+			String ldf = scoped ? "_ldf/" + gen.getVocab(g) : "_ldf";
+			int shape = r.nextInt(100);
+			if (shape < 30) {
+				mix.add(1, ldf + "?s=" + s);
+			} else if (shape < 50) {
+				String o = enc(NTriplesUtil.toNTriplesString(gen.getPrefLabel(g, i, 0)));
+				mix.add(1, ldf + "?p=" + pref + "&o=" + o);
+			} else if (shape < 65) {
+				mix.add(1, ldf + "?p=" + broader + "&page=" + (1 + r.nextInt(5)));
+			} else if (shape < 80) {
+				mix.add(1, ldf + "?o=" + s);
+			} else if (shape < 90) {
+				mix.add(1, ldf + "?s=" + s + "&p=" + pref);
+			} else {
+				mix.add(1, ldf + "?page=" + (1 + r.nextInt(5)));
+			}
+		}
+		return mix;
+	}
+}
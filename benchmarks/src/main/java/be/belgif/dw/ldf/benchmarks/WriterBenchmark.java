@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.benchmarks;
+
+import be.belgif.dw.ldf.helpers.RDFMediaType;
+import be.belgif.dw.ldf.helpers.RDFMessageBodyWriter;
+import be.belgif.dw.ldf.helpers.RDFStream;
+import be.belgif.dw.ldf.helpers.RDFStreamMessageBodyWriter;
+import be.belgif.dw.ldf.query.QueryHelperLDF;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing one page of a fragment in each output format, 
+ * and parsing the result again.
+ * 
+ * @author Bart.Hanssens
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+	private final static Annotation[] NONE = new Annotation[0];
+
+	@Param({"10000"})
+	public int concepts;
+
+	@Param({RDFMediaType.TRIG, RDFMediaType.JSONLD, RDFMediaType.NQUADS, 
+			RDFMediaType.NTRIPLES, RDFMediaType.TTL, RDFMediaType.BINARY})
+	public String format;
+
+	private MediaType mt;
+	private Model head;
+	private final List<Statement> body = new ArrayList<>();
+	private byte[] bytes;
+
+	private final RDFStreamMessageBodyWriter streamWriter = new RDFStreamMessageBodyWriter();
+	private final RDFMessageBodyWriter modelWriter = new RDFMessageBodyWriter();
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Repository repo = BenchmarkStore.open(concepts, "spoc-posc");
+		try (RDFStream stream = QueryHelperLDF.getLDF(repo, null, 
+								SKOS.PREF_LABEL.stringValue(), null, "", "1", null)) {
+			head = new LinkedHashModel(stream.getHead());
+			head.getNamespaces().addAll(stream.getHead().getNamespaces());
+			while (stream.getBody().hasNext()) {
+				body.add(stream.getBody().next());
+			}
+		}
+		repo.shutDown();
+
+		mt = MediaType.valueOf(format);
+		bytes = writeStream().toByteArray();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		body.clear();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+		RDFStream stream = new RDFStream(head, 
+								new CloseableIteratorIteration<>(body.iterator()), null);
+		streamWriter.writeTo(stream, RDFStream.class, RDFStream.class, NONE, mt, 
+							new MultivaluedHashMap<>(), out);
+		return out;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeModel() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+		Model m = new LinkedHashModel(head);
+		m.addAll(body);
+		modelWriter.writeTo(m, Model.class, Model.class, NONE, mt, 
+							new MultivaluedHashMap<>(), out);
+		return out;
+	}
+
+	@Benchmark
+	public Model parse() throws IOException {
+		RDFFormat fmt = RDFMediaType.getRDFFormat(mt);
+		return Rio.parse(new ByteArrayInputStream(bytes), BenchmarkStore.PREFIX, fmt);
+	}
+}
@@ -25,12 +25,28 @@
  */
 package be.belgif.dw.ldf;
 
+import be.belgif.dw.ldf.helpers.Admission;
+import be.belgif.dw.ldf.helpers.AdmissionFilter;
+import be.belgif.dw.ldf.helpers.Clients;
+import be.belgif.dw.ldf.helpers.Compression;
+import be.belgif.dw.ldf.helpers.CompressionInterceptor;
+import be.belgif.dw.ldf.helpers.FragmentCache;
+import be.belgif.dw.ldf.helpers.FragmentCacheFilter;
+import be.belgif.dw.ldf.helpers.FragmentMetrics;
 import be.belgif.dw.ldf.helpers.RDFMessageBodyWriter;
+import be.belgif.dw.ldf.helpers.RDFStreamMessageBodyWriter;
+import be.belgif.dw.ldf.helpers.RateLimitFilter;
+import be.belgif.dw.ldf.helpers.SlowFragments;
+import be.belgif.dw.ldf.query.CursorCache;
+import be.belgif.dw.ldf.resources.FtsResource;
 import be.belgif.dw.ldf.resources.LdfResource;
+import be.belgif.dw.ldf.resources.QpfResource;
+import be.belgif.dw.ldf.resources.SuggestResource;
 import be.belgif.dw.ldf.tasks.LuceneReindexTask;
 import be.belgif.dw.ldf.tasks.RDFClearTask;
 import be.belgif.dw.ldf.tasks.RDFExportTask;
 import be.belgif.dw.ldf.tasks.RDFImportTask;
+import be.belgif.dw.ldf.tasks.SlowFragmentsTask;
 import io.dropwizard.Application;
 import io.dropwizard.setup.Environment;
 import org.eclipse.rdf4j.repository.Repository;
@@ -55,6 +71,18 @@ public class App extends Application<TripleStoreConfig> {
 		return App.PREFIX;
 	}
 
+	/**
+	 * Set domain / prefix.
+	 * Must be called before the query helpers are used, e.g. when using them
+	 * outside this application.
+	 * 
+	 * @param prefix prefix, ending with a slash
+	 */
+	public static void setPrefix(String prefix) {
+		App.PREFIX = prefix;
+		App.PREFIX_GRAPH = prefix + "graph";
+	}
+
 	/**
 	 * Get graph IRI as string
 	 *
@@ -66,24 +94,65 @@ public class App extends Application<TripleStoreConfig> {
 
 	@Override
 	public void run(TripleStoreConfig config, Environment env) {
+		// set before building the store, used by the query helpers
+		setPrefix(config.getTripleStoreFactory().getSitePrefix());
+
 		Repository repo = config.getTripleStoreFactory().build(env);
-		
-		PREFIX = config.getTripleStoreFactory().getSitePrefix();
-		PREFIX_GRAPH = PREFIX + "graph";
 				
 		// RDF Serialization formats
 		env.jersey().register(new RDFMessageBodyWriter());
+		env.jersey().register(new RDFStreamMessageBodyWriter());
+
+		// Cache of rendered fragments
+		FragmentCache.configure(config.getFragmentCacheSize(), env.metrics());
+		env.jersey().register(new FragmentCacheFilter());
+
+		// Scans parked between pages
+		CursorCache.configure(config.getParkedScans(), config.getParkedScanIdle());
+
+		// Timings of the stages of fragment requests
+		FragmentMetrics.configure(env.metrics());
+		SlowFragments.configure(config.getSlowFragmentThreshold(), 
+								config.getSlowFragmentBuffer(), 
+								config.getSlowFragmentSampleRate(),
+								config.getTripleStoreFactory().getTripleIndexes());
+
+		// Per-client rate limits and weights for fair queuing
+		Clients.configure(config.getClientRate(), config.getClientBurst(), 
+							config.getMaxClients(), config.getApiKeyHeader(), 
+							config.isTrustForwardedFor(), config.getClientWeights(), 
+							env.metrics());
+		env.jersey().register(new RateLimitFilter());
+
+		// Limit concurrent store readers, admin tasks and health checks
+		// run on the admin connector, with their own threads
+		Admission.configure(config.getMaxReaders(), config.getReaderQueue(), 
+							config.getReaderWait(), config.getRetryAfter(), env.metrics());
+		env.jersey().register(new AdmissionFilter());
+
+		// Compressed responses
+		Compression.configure(config.getCompressionLevel(), 
+								config.getCompressionMinSize(), env.metrics());
+		env.jersey().register(CompressionInterceptor.class);
 			
 		// Resources / "web pages"
 		env.jersey().register(new LdfResource(repo));
+		env.jersey().register(new QpfResource(repo));
+		env.jersey().register(new FtsResource(repo));
+		env.jersey().register(new SuggestResource(repo));
 		
 		// tasks
-		env.admin().addTask(new LuceneReindexTask(repo));
+		env.admin().addTask(new LuceneReindexTask(repo, 
+								config.getTripleStoreFactory().getLuceneDir(),
+								config.getTripleStoreFactory().getReindexRate()));
 		env.admin().addTask(new RDFClearTask(repo));
 		env.admin().addTask(
-				new RDFImportTask(repo, config.getTripleStoreFactory().getImportDir()));
+				new RDFImportTask(repo, config.getTripleStoreFactory().getImportDir(),
+								config.getTripleStoreFactory().getImportThreads(),
+								config.getTripleStoreFactory().getImportBatch()));
 		env.admin().addTask(
 				new RDFExportTask(repo, config.getTripleStoreFactory().getExportDir()));
+		env.admin().addTask(new SlowFragmentsTask());
 		
 	}
 	
@@ -30,7 +30,12 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.dropwizard.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 
@@ -44,6 +49,66 @@ public class TripleStoreConfig extends Configuration {
 	@NotNull
 	private TripleStoreFactory factory = new TripleStoreFactory();
 	
+	@Min(0)
+	private long fragmentCacheSize = 64 * 1024 * 1024;
+
+	@Min(0)
+	@Max(9)
+	private int compressionLevel = 6;
+
+	@Min(0)
+	private int compressionMinSize = 1024;
+
+	// each parked scan keeps a connection open, 0 to disable
+	@Min(0)
+	private int parkedScans = 32;
+
+	@Min(0)
+	private long parkedScanIdle = 10000;
+
+	// 0 for no limit, e.g. twice the number of processors
+	@Min(0)
+	private int maxReaders = 0;
+
+	@Min(0)
+	private int readerQueue = 50;
+
+	@Min(0)
+	private long readerWait = 1000;
+
+	@Min(0)
+	private int retryAfter = 1;
+
+	// requests per second per client, 0 for no limit
+	@Min(0)
+	private double clientRate = 0;
+
+	@Min(1)
+	private int clientBurst = 20;
+
+	@Min(1)
+	private int maxClients = 10000;
+
+	// only keys listed in clientWeights are used, other clients are identified by IP
+	private String apiKeyHeader = "X-API-Key";
+
+	// use last X-Forwarded-For address, only when running behind a proxy
+	private boolean trustForwardedFor = false;
+
+	// positive weight per API key or IP address, default is 1
+	@NotNull
+	private Map<String, Double> clientWeights = new HashMap<>();
+
+	@Min(0)
+	private long slowFragmentThreshold = 500;
+
+	@Min(0)
+	private int slowFragmentBuffer = 100;
+
+	@Min(0)
+	@Max(1)
+	private double slowFragmentSampleRate = 0.1;
+
 	@JsonProperty("tripleStore")
 	public TripleStoreFactory getTripleStoreFactory() {
 		return factory;
@@ -53,4 +118,184 @@ public class TripleStoreConfig extends Configuration {
 	public void setTripleStoreFactory(TripleStoreFactory factory) {
 		this.factory = factory;
 	}
+
+	@JsonProperty
+	public long getFragmentCacheSize() {
+		return fragmentCacheSize;
+	}
+
+	@JsonProperty
+	public void setFragmentCacheSize(long fragmentCacheSize) {
+		this.fragmentCacheSize = fragmentCacheSize;
+	}
+
+	@JsonProperty
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	@JsonProperty
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	@JsonProperty
+	public int getCompressionMinSize() {
+		return compressionMinSize;
+	}
+
+	@JsonProperty
+	public void setCompressionMinSize(int compressionMinSize) {
+		this.compressionMinSize = compressionMinSize;
+	}
+
+	@JsonProperty
+	public long getSlowFragmentThreshold() {
+		return slowFragmentThreshold;
+	}
+
+	@JsonProperty
+	public void setSlowFragmentThreshold(long slowFragmentThreshold) {
+		this.slowFragmentThreshold = slowFragmentThreshold;
+	}
+
+	@JsonProperty
+	public int getSlowFragmentBuffer() {
+		return slowFragmentBuffer;
+	}
+
+	@JsonProperty
+	public void setSlowFragmentBuffer(int slowFragmentBuffer) {
+		this.slowFragmentBuffer = slowFragmentBuffer;
+	}
+
+	@JsonProperty
+	public double getSlowFragmentSampleRate() {
+		return slowFragmentSampleRate;
+	}
+
+	@JsonProperty
+	public void setSlowFragmentSampleRate(double slowFragmentSampleRate) {
+		this.slowFragmentSampleRate = slowFragmentSampleRate;
+	}
+
+	@JsonProperty
+	public int getMaxReaders() {
+		return maxReaders;
+	}
+
+	@JsonProperty
+	public void setMaxReaders(int maxReaders) {
+		this.maxReaders = maxReaders;
+	}
+
+	@JsonProperty
+	public int getReaderQueue() {
+		return readerQueue;
+	}
+
+	@JsonProperty
+	public void setReaderQueue(int readerQueue) {
+		this.readerQueue = readerQueue;
+	}
+
+	@JsonProperty
+	public long getReaderWait() {
+		return readerWait;
+	}
+
+	@JsonProperty
+	public void setReaderWait(long readerWait) {
+		this.readerWait = readerWait;
+	}
+
+	@JsonProperty
+	public int getParkedScans() {
+		return parkedScans;
+	}
+
+	@JsonProperty
+	public void setParkedScans(int parkedScans) {
+		this.parkedScans = parkedScans;
+	}
+
+	@JsonProperty
+	public long getParkedScanIdle() {
+		return parkedScanIdle;
+	}
+
+	@JsonProperty
+	public void setParkedScanIdle(long parkedScanIdle) {
+		this.parkedScanIdle = parkedScanIdle;
+	}
+
+	@JsonProperty
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	@JsonProperty
+	public void setRetryAfter(int retryAfter) {
+		this.retryAfter = retryAfter;
+	}
+
+	@JsonProperty
+	public double getClientRate() {
+		return clientRate;
+	}
+
+	@JsonProperty
+	public void setClientRate(double clientRate) {
+		this.clientRate = clientRate;
+	}
+
+	@JsonProperty
+	public int getClientBurst() {
+		return clientBurst;
+	}
+
+	@JsonProperty
+	public void setClientBurst(int clientBurst) {
+		this.clientBurst = clientBurst;
+	}
+
+	@JsonProperty
+	public int getMaxClients() {
+		return maxClients;
+	}
+
+	@JsonProperty
+	public void setMaxClients(int maxClients) {
+		this.maxClients = maxClients;
+	}
+
+	@JsonProperty
+	public String getApiKeyHeader() {
+		return apiKeyHeader;
+	}
+
+	@JsonProperty
+	public void setApiKeyHeader(String apiKeyHeader) {
+		this.apiKeyHeader = apiKeyHeader;
+	}
+
+	@JsonProperty
+	public boolean isTrustForwardedFor() {
+		return trustForwardedFor;
+	}
+
+	@JsonProperty
+	public void setTrustForwardedFor(boolean trustForwardedFor) {
+		this.trustForwardedFor = trustForwardedFor;
+	}
+
+	@JsonProperty
+	public Map<String, Double> getClientWeights() {
+		return clientWeights;
+	}
+
+	@JsonProperty
+	public void setClientWeights(Map<String, Double> clientWeights) {
+		this.clientWeights = clientWeights;
+	}
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limit the number of concurrent requests reading from the store.
+ * 
+ * Requests wait in a short queue for a free slot, and are rejected when the
+ * queue is full or when they waited too long.
+ * Waiting requests are served by start-time fair queuing between clients, 
+ * so a client sending many requests at once cannot delay the others.
+ * 
+ * @author Bart.Hanssens
+ */
+public class Admission {
+	private final static Object LOCK = new Object();
+	private final static PriorityQueue<Waiter> QUEUE = new PriorityQueue<>();
+
+	private static int maxReaders = 0;
+	private static int maxQueue = 0;
+	private static long maxWait = 0;
+	private static int retryAfter = 1;
+
+	private static int active = 0;
+	private static double vtime = 0;
+	private static long seq = 0;
+
+	private static Meter rejections = new Meter();
+	private static Timer waits = new Timer();
+
+	/**
+	 * Request waiting for a slot, ordered by start tag
+	 */
+	private static class Waiter implements Comparable<Waiter> {
+		private final double tag;
+		private final long order;
+		private boolean granted = false;
+
+		@Override
+		public int compareTo(Waiter w) {
+			int c = Double.compare(tag, w.tag);
+			return (c != 0) ? c : Long.compare(order, w.order);
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param tag start tag
+		 * @param order arrival order
+		 */
+		private Waiter(double tag, long order) {
+			this.tag = tag;
+			this.order = order;
+		}
+	}
+
+	/**
+	 * Configure limits and register metrics
+	 * 
+	 * @param maxReaders maximum number of concurrent readers, 0 for no limit
+	 * @param maxQueue maximum number of waiting requests
+	 * @param maxWait maximum waiting time in milliseconds
+	 * @param retryAfter number of seconds clients should wait before retrying
+	 * @param metrics metrics registry
+	 */
+	public static void configure(int maxReaders, int maxQueue, long maxWait, int retryAfter,
+								MetricRegistry metrics) {
+		synchronized (LOCK) {
+			Admission.maxReaders = maxReaders;
+			Admission.maxQueue = maxQueue;
+			Admission.maxWait = maxWait;
+			Admission.retryAfter = retryAfter;
+		}
+		rejections = metrics.meter(MetricRegistry.name(Admission.class, "rejections"));
+		waits = metrics.timer(MetricRegistry.name(Admission.class, "wait"));
+		metrics.register(MetricRegistry.name(Admission.class, "queue-depth"),
+						(Gauge<Integer>) () -> {
+							synchronized (LOCK) {
+								return QUEUE.size();
+							}
+						});
+		metrics.register(MetricRegistry.name(Admission.class, "active-readers"),
+						(Gauge<Integer>) () -> {
+							synchronized (LOCK) {
+								return active;
+							}
+						});
+	}
+
+	/**
+	 * Get number of seconds before retrying a rejected request
+	 * 
+	 * @return seconds
+	 */
+	public static int getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Try to get a slot for reading from the store, waiting if needed.
+	 * A successful call must be followed by a call to release.
+	 * 
+	 * @param client client identifier
+	 * @return true if admitted, false if rejected
+	 */
+	public static boolean acquire(String client) {
+		synchronized (LOCK) {
+			if (maxReaders <= 0) {
+				return true;
+			}
+			if (active < maxReaders && QUEUE.isEmpty()) {
+				vtime = Clients.tag(client, vtime);
+				active++;
+				return true;
+			}
+			if (QUEUE.size() >= maxQueue) {
+				rejections.mark();
+				return false;
+			}
+
+			Waiter me = new Waiter(Clients.tag(client, vtime), seq++);
+			QUEUE.add(me);
+			Timer.Context time = waits.time();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+			try {
+				while (!me.granted) {
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						break;
+					}
+					TimeUnit.NANOSECONDS.timedWait(LOCK, left);
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			} finally {
+				time.stop();
+			}
+			if (!me.granted) {
+				QUEUE.remove(me);
+				rejections.mark();
+			}
+			return me.granted;
+		}
+	}
+
+	/**
+	 * Release slot, and hand it over to the waiting request with the lowest start tag
+	 */
+	public static void release() {
+		synchronized (LOCK) {
+			if (maxReaders <= 0) {
+				return;
+			}
+			Waiter next = QUEUE.poll();
+			if (next != null) {
+				next.granted = true;
+				vtime = next.tag;
+				LOCK.notifyAll();
+			} else {
+				active--;
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import com.google.common.net.HttpHeaders;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Priority;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Admission control for resources reading from the store.
+ * 
+ * Runs after the fragment cache filter, so cached fragments are always served.
+ * The slot is kept until the response has been written, since results are 
+ * streamed from the store.
+ * Waiting requests are admitted fairly between clients, see {@link Clients}.
+ * 
+ * @author Bart.Hanssens
+ */
+@Provider
+@Limited
+@Priority(Priorities.USER + 100)
+public class AdmissionFilter implements ContainerRequestFilter, 
+								ContainerResponseFilter, WriterInterceptor {
+	private final static String SLOT = AdmissionFilter.class.getName() + ".slot";
+
+	@Context
+	private HttpServletRequest http;
+
+	/**
+	 * Release the slot, if not released yet
+	 * 
+	 * @param slot property value
+	 */
+	private static void release(Object slot) {
+		if (slot != null && ((AtomicBoolean) slot).compareAndSet(true, false)) {
+			Admission.release();
+		}
+	}
+
+	@Override
+	public void filter(ContainerRequestContext req) throws IOException {
+		if (!Admission.acquire(Clients.getKey(http))) {
+			req.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+								.header(HttpHeaders.RETRY_AFTER, Admission.getRetryAfter())
+								.type(MediaType.TEXT_PLAIN_TYPE)
+								.entity("Too many requests, please retry later")
+								.build());
+			return;
+		}
+		req.setProperty(SLOT, new AtomicBoolean(true));
+	}
+
+	@Override
+	public void filter(ContainerRequestContext req, ContainerResponseContext resp) 
+														throws IOException {
+		// nothing to write, e.g. not modified
+		if (!resp.hasEntity()) {
+			release(req.getProperty(SLOT));
+		}
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext ctx) 
+									throws IOException, WebApplicationException {
+		try {
+			ctx.proceed();
+		} finally {
+			release(ctx.getProperty(SLOT));
+		}
+	}
+}
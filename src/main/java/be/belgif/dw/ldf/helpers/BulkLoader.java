@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import be.belgif.dw.ldf.tasks.Job;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.eclipse.rdf4j.IsolationLevels;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.rio.ParseErrorListener;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
+import org.eclipse.rdf4j.rio.helpers.NTriplesParserSettings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk loader: parses files in parallel and adds the statements in batches,
+ * committing every N statements (or only once, when atomic).
+ * 
+ * @author Bart.Hanssens
+ */
+public class BulkLoader {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(BulkLoader.class);
+
+	// line-based files larger than this are split between parser threads
+	private final static long SPLIT_SIZE = 64 * 1024 * 1024;
+	// number of statements passed at once from parser to writer
+	private final static int CHUNK = 1000;
+	private final static List<Statement> END = new ArrayList<>(0);
+
+	private final Repository repo;
+	private final int threads;
+	private final int batch;
+	private final Job job;
+
+	private final BlockingQueue<List<Statement>> queue;
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+	private final AtomicLong errors = new AtomicLong();
+	// files not completely loaded (when not atomic)
+	private final Queue<String> partial = new ConcurrentLinkedQueue<>();
+	private volatile boolean abort = false;
+
+	/**
+	 * (Part of) a file to be parsed by one thread
+	 */
+	private static class Part {
+		private final Path file;
+		private final RDFFormat fmt;
+		private final long start;
+		private final long end;
+		private final String prefix;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param file file
+		 * @param fmt RDF format
+		 * @param start first byte
+		 * @param end last byte (exclusive), or -1 for the whole file
+		 * @param prefix blank node prefix of the file
+		 */
+		Part(Path file, RDFFormat fmt, long start, long end, String prefix) {
+			this.file = file;
+			this.fmt = fmt;
+			this.start = start;
+			this.end = end;
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Value factory keeping blank node IDs of a file, 
+	 * so blank nodes are the same in all parts of a split file.
+	 * The prefix is unique for each file of each load, so blank nodes of
+	 * different files or imports are never merged.
+	 */
+	private static class FileValueFactory extends SimpleValueFactory {
+		private final String prefix;
+
+		@Override
+		public BNode createBNode(String id) {
+			return super.createBNode(prefix + id);
+		}
+
+		FileValueFactory(String prefix) {
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Passes chunks of statements to the writer
+	 */
+	private class Chunker extends AbstractRDFHandler {
+		private List<Statement> buf = new ArrayList<>(CHUNK);
+
+		/**
+		 * Put chunk on the queue, waiting when the queue is full
+		 */
+		private void flush() {
+			try {
+				while (!queue.offer(buf, 1, TimeUnit.SECONDS)) {
+					if (abort) {
+						throw new RDFHandlerException("Aborted");
+					}
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new RDFHandlerException("Interrupted");
+			}
+			buf = new ArrayList<>(CHUNK);
+		}
+
+		@Override
+		public void handleStatement(Statement st) {
+			buf.add(st);
+			if (buf.size() >= CHUNK) {
+				flush();
+			}
+		}
+
+		@Override
+		public void endRDF() {
+			if (!buf.isEmpty()) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Split a file in parts, breaking line-based formats on line boundaries
+	 * 
+	 * @param file file
+	 * @param fmt RDF format
+	 * @return list of parts
+	 * @throws IOException 
+	 */
+	private static List<Part> split(Path file, RDFFormat fmt) throws IOException {
+		List<Part> parts = new ArrayList<>();
+		long size = Files.size(file);
+		String prefix = "f" + UUID.randomUUID().toString().replace("-", "") + "x";
+
+		if (size <= SPLIT_SIZE || !(fmt.equals(RDFFormat.NTRIPLES) || fmt.equals(RDFFormat.NQUADS))) {
+			parts.add(new Part(file, fmt, 0, -1, prefix));
+			return parts;
+		}
+		try (RandomAccessFile f = new RandomAccessFile(file.toFile(), "r")) {
+			long start = 0;
+			for (long pos = SPLIT_SIZE; pos < size; pos += SPLIT_SIZE) {
+				f.seek(pos);
+				int b;
+				while ((b = f.read()) != -1 && b != '\n') {
+					// find end of line
+				}
+				long end = f.getFilePointer();
+				if (end > start) {
+					parts.add(new Part(file, fmt, start, end, prefix));
+					start = end;
+				}
+			}
+			if (start < size) {
+				parts.add(new Part(file, fmt, start, size, prefix));
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Open (part of) a file
+	 * 
+	 * @param part part
+	 * @return input stream
+	 * @throws IOException 
+	 */
+	private InputStream open(Part part) throws IOException {
+		InputStream in;
+		if (part.end < 0) {
+			in = Files.newInputStream(part.file);
+		} else {
+			FileChannel ch = FileChannel.open(part.file);
+			ch.position(part.start);
+			in = ByteStreams.limit(Channels.newInputStream(ch), part.end - part.start);
+		}
+		return new BufferedInputStream(job.track(in), 1 << 16);
+	}
+
+	/**
+	 * Parse (part of) a file
+	 * 
+	 * @param part part
+	 * @param atomic stop at first error
+	 */
+	private void parse(Part part, boolean atomic) {
+		RDFParser parser = Rio.createParser(part.fmt);
+		if (part.end >= 0) {
+			parser.setValueFactory(new FileValueFactory(part.prefix));
+			parser.getParserConfig().set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+		}
+		if (!atomic) {
+			// skip invalid lines instead of failing
+			parser.getParserConfig().set(NTriplesParserSettings.FAIL_ON_NTRIPLES_INVALID_LINES, false);
+			parser.getParserConfig().addNonFatalError(NTriplesParserSettings.FAIL_ON_NTRIPLES_INVALID_LINES);
+		}
+		parser.setParseErrorListener(new ParseErrorListener() {
+			@Override
+			public void warning(String msg, long line, long col) {
+				LOG.warn("{} (from byte {}) line {}: {}", part.file, part.start, line, msg);
+			}
+
+			@Override
+			public void error(String msg, long line, long col) {
+				errors.incrementAndGet();
+				LOG.warn("{} (from byte {}) line {}: {}", part.file, part.start, line, msg);
+			}
+
+			@Override
+			public void fatalError(String msg, long line, long col) {
+				errors.incrementAndGet();
+				LOG.error("{} (from byte {}) line {}: {}", part.file, part.start, line, msg);
+			}
+		});
+		Chunker chunker = new Chunker();
+		parser.setRDFHandler(chunker);
+
+		try (InputStream in = open(part)) {
+			parser.parse(in, part.file.toUri().toString());
+		} catch (Exception e) {
+			if (abort) {
+				return;
+			}
+			LOG.error("Error parsing {} at byte {}", part.file, part.start, e);
+			if (atomic) {
+				failure.compareAndSet(null, e);
+				abort = true;
+			} else {
+				// keep what was parsed so far, rest of the file (part) is skipped
+				partial.add(part.file.getFileName().toString());
+				try {
+					chunker.endRDF();
+				} catch (RDFHandlerException rhe) {
+					// aborted
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write progress to log
+	 * 
+	 * @param count number of statements
+	 * @param start start time in milliseconds
+	 */
+	private static void progress(long count, long start) {
+		long ms = Math.max(1, System.currentTimeMillis() - start);
+		LOG.info("Loaded {} triples, {} triples/s", count, count * 1000 / ms);
+	}
+
+	/**
+	 * Load files into the store
+	 * 
+	 * @param files files to load
+	 * @param ctx named graph or null
+	 * @param atomic all-or-nothing: one transaction, and stop at first error
+	 * @return number of loaded statements
+	 */
+	public long load(List<Path> files, Resource ctx, boolean atomic) {
+		List<Part> parts = new ArrayList<>();
+		long total = 0;
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				Path file = files.get(i);
+				if (!Files.isReadable(file)) {
+					throw new WebApplicationException("File not readable");
+				}
+				Optional<RDFFormat> fmt = Rio.getParserFormatForFileName(file.toString());
+				if (!fmt.isPresent()) {
+					throw new WebApplicationException("File type not supported");
+				}
+				parts.addAll(split(file, fmt.get()));
+				total += Files.size(file);
+			}
+		} catch (IOException ioe) {
+			throw new WebApplicationException("Error reading file", ioe);
+		}
+		LOG.info("Loading {} files in {} parts, {} threads", files.size(), parts.size(), threads);
+		job.setTotalBytes(total);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, parts.size()));
+		AtomicInteger todo = new AtomicInteger(parts.size());
+		for (Part part: parts) {
+			pool.execute(() -> {
+				try {
+					parse(part, atomic);
+				} finally {
+					if (todo.decrementAndGet() == 0) {
+						try {
+							queue.put(END);
+						} catch (InterruptedException ie) {
+							// writer already stopped
+						}
+					}
+				}
+			});
+		}
+
+		String graph = (ctx != null) ? ctx.stringValue() : null;
+		Resource[] ctxs = (ctx != null) ? new Resource[] { ctx } : new Resource[0];
+		long start = System.currentTimeMillis();
+		long count = 0;
+		long uncommitted = 0;
+		boolean committed = false;
+
+		try (RepositoryConnection conn = repo.getConnection()) {
+			conn.begin(atomic ? conn.getIsolationLevel() : IsolationLevels.NONE);
+			try {
+				for (List<Statement> chunk = queue.take(); chunk != END; chunk = queue.take()) {
+					if (abort || job.isCancelled()) {
+						break;
+					}
+					conn.add(chunk, ctxs);
+					job.addStatements(chunk.size());
+					count += chunk.size();
+					uncommitted += chunk.size();
+					if (!atomic && uncommitted >= batch) {
+						conn.commit();
+						StoreVersion.changed(graph, false);
+						committed = true;
+						progress(count, start);
+						uncommitted = 0;
+						conn.begin(IsolationLevels.NONE);
+					}
+				}
+				if (job.isCancelled()) {
+					conn.rollback();
+					job.checkCancelled();
+				}
+				if (failure.get() != null) {
+					conn.rollback();
+					throw new WebApplicationException("Error parsing, nothing loaded", failure.get());
+				}
+				conn.commit();
+				committed = true;
+				progress(count, start);
+			} finally {
+				if (conn.isActive()) {
+					conn.rollback();
+				}
+				// also after a failure, when some batches were already committed
+				if (committed) {
+					StoreVersion.changed(graph);
+				}
+			}
+		} catch (RepositoryException rex) {
+			throw new WebApplicationException("Error loading", rex);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new WebApplicationException("Interrupted", ie);
+		} finally {
+			abort = true;
+			pool.shutdownNow();
+		}
+
+		if (errors.get() > 0 || !partial.isEmpty()) {
+			LOG.warn("{} parse errors", errors.get());
+			StringBuilder msg = new StringBuilder("Partial load, ")
+										.append(errors.get()).append(" parse errors");
+			if (!partial.isEmpty()) {
+				msg.append(", stopped parsing ").append(String.join(",", partial));
+			}
+			job.warn(msg.toString());
+		}
+		return count;
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param repo repository
+	 * @param threads maximum number of parser threads
+	 * @param batch commit every N statements (when not atomic)
+	 * @param job job for reporting progress and checking cancellation
+	 */
+	public BulkLoader(Repository repo, int threads, int batch, Job job) {
+		this.repo = repo;
+		this.job = job;
+		this.threads = Math.max(1, threads);
+		this.batch = Math.max(CHUNK, batch);
+		this.queue = new ArrayBlockingQueue<>(this.threads * 4);
+	}
+}
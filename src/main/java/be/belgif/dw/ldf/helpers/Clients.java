@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Per-client state: token bucket for rate limiting and tag for fair queuing.
+ * 
+ * Clients are identified by API key, when the key is configured with a weight,
+ * or by IP address.
+ * The table is bounded, least recently used and idle clients are evicted first.
+ * 
+ * @author Bart.Hanssens
+ */
+public class Clients {
+	private final static long IDLE = TimeUnit.MINUTES.toNanos(10);
+	private final static int MAX_RETRY = 3600;
+
+	private static double rate = 0;
+	private static int burst = 20;
+	private static int maxClients = 10000;
+	private static String apiKeyHeader = "X-API-Key";
+	private static boolean trustForwardedFor = false;
+	private static Map<String, Double> weights = Collections.emptyMap();
+
+	private static Meter limited = new Meter();
+
+	// access order, least recently used first
+	private final static Map<String, Client> TABLE = new LinkedHashMap<String, Client>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Client> eldest) {
+			return size() > maxClients || System.nanoTime() - eldest.getValue().seen > IDLE;
+		}
+	};
+
+	/**
+	 * State of a client
+	 */
+	private static class Client {
+		private final double weight;
+		private double tokens;
+		private long refill = System.nanoTime();
+		private long seen = refill;
+		private double finish;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param weight relative weight
+		 */
+		private Client(double weight) {
+			this.weight = weight;
+			this.tokens = capacity();
+		}
+
+		/**
+		 * Get maximum number of tokens, at least one
+		 * 
+		 * @return number of tokens
+		 */
+		private double capacity() {
+			return Math.max(1, burst * weight);
+		}
+	}
+
+	/**
+	 * Configure limits and register metrics
+	 * 
+	 * @param rate requests per second per client, 0 for no limit
+	 * @param burst maximum number of requests in a burst
+	 * @param maxClients maximum number of clients to keep track of
+	 * @param apiKeyHeader HTTP header containing the API key
+	 * @param trustForwardedFor use X-Forwarded-For header, e.g. behind a proxy
+	 * @param weights weights per API key or IP address, default is 1
+	 * @throws IllegalArgumentException if a weight is not a positive number
+	 * @param metrics metrics registry
+	 */
+	public static void configure(double rate, int burst, int maxClients, String apiKeyHeader,
+					boolean trustForwardedFor, Map<String, Double> weights, MetricRegistry metrics) {
+		Clients.rate = rate;
+		Clients.burst = burst;
+		Clients.maxClients = maxClients;
+		Clients.apiKeyHeader = apiKeyHeader;
+		Clients.trustForwardedFor = trustForwardedFor;
+		if (weights != null) {
+			for (Map.Entry<String, Double> e: weights.entrySet()) {
+				Double w = e.getValue();
+				if (w == null || !(w > 0) || w.isInfinite()) {
+					throw new IllegalArgumentException("Invalid weight for client " + e.getKey());
+				}
+			}
+		}
+		Clients.weights = (weights != null) ? new HashMap<>(weights) : Collections.emptyMap();
+		synchronized (TABLE) {
+			TABLE.clear();
+		}
+		limited = metrics.meter(MetricRegistry.name(Clients.class, "rate-limited"));
+		metrics.register(MetricRegistry.name(Clients.class, "clients"), 
+						(Gauge<Integer>) () -> { 
+							synchronized (TABLE) { 
+								return TABLE.size(); 
+							}
+						});
+	}
+
+	/**
+	 * Get client identifier: API key, or IP address.
+	 * Only API keys with a configured weight are accepted, since clients could
+	 * otherwise get a fresh bucket by sending a different key with each request.
+	 * When trusting X-Forwarded-For, the last address (added by the proxy) is used.
+	 * 
+	 * @param req HTTP request
+	 * @return identifier
+	 */
+	public static String getKey(HttpServletRequest req) {
+		String key = (apiKeyHeader != null && !apiKeyHeader.isEmpty()) 
+						? req.getHeader(apiKeyHeader) : null;
+		if (key != null && weights.containsKey(key)) {
+			return key;
+		}
+		if (trustForwardedFor) {
+			String fwd = req.getHeader("X-Forwarded-For");
+			if (fwd != null) {
+				String addr = fwd.substring(fwd.lastIndexOf(',') + 1).trim();
+				if (!addr.isEmpty()) {
+					return addr;
+				}
+			}
+		}
+		return req.getRemoteAddr();
+	}
+
+	/**
+	 * Get client state, create it when needed
+	 * 
+	 * @param key client identifier
+	 * @return client
+	 */
+	private static Client get(String key) {
+		Client c = TABLE.get(key);
+		if (c == null) {
+			c = new Client(weights.getOrDefault(key, 1.0));
+			TABLE.put(key, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Take a token from the bucket of a client
+	 * 
+	 * @param key client identifier
+	 * @return 0 if allowed, or number of seconds to wait (at most one hour)
+	 */
+	public static int take(String key) {
+		if (rate <= 0) {
+			return 0;
+		}
+		synchronized (TABLE) {
+			Client c = get(key);
+			long now = System.nanoTime();
+			double r = rate * c.weight;
+			c.tokens = Math.min(c.capacity(), c.tokens + (now - c.refill) / 1e9 * r);
+			c.refill = now;
+			c.seen = now;
+			if (c.tokens >= 1) {
+				c.tokens--;
+				return 0;
+			}
+			limited.mark();
+			double wait = Math.ceil((1 - c.tokens) / r);
+			return (wait < MAX_RETRY) ? Math.max(1, (int) wait) : MAX_RETRY;
+		}
+	}
+
+	/**
+	 * Get start tag for start-time fair queuing, and advance the finish tag of the client.
+	 * Clients with a higher weight advance more slowly, and thus get more slots.
+	 * 
+	 * @param key client identifier
+	 * @param vtime current virtual time
+	 * @return start tag
+	 */
+	public static double tag(String key, double vtime) {
+		synchronized (TABLE) {
+			Client c = get(key);
+			c.seen = System.nanoTime();
+			double start = Math.max(vtime, c.finish);
+			c.finish = start + 1 / c.weight;
+			return start;
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helper class for compressing responses (gzip / deflate content encoding)
+ * 
+ * @author Bart.Hanssens
+ */
+public class Compression {
+	public final static String GZIP = "gzip";
+	public final static String DEFLATE = "deflate";
+	// request headers the representation of a resource depends on
+	public final static String VARY = "Accept, Accept-Encoding";
+
+	private static int level = 0;
+	private static int minSize = 512;
+
+	private static Counter saved = new Counter();
+	private static Timer time = new Timer();
+
+	/**
+	 * Configure compression and register metrics
+	 * 
+	 * @param level compression level (1-9), 0 to disable compression
+	 * @param minSize do not compress bodies smaller than this number of bytes
+	 * @param metrics metrics registry
+	 */
+	public static void configure(int level, int minSize, MetricRegistry metrics) {
+		Compression.level = level;
+		Compression.minSize = minSize;
+		saved = metrics.counter(MetricRegistry.name(Compression.class, "bytes-saved"));
+		time = metrics.timer(MetricRegistry.name(Compression.class, "time"));
+	}
+
+	/**
+	 * Get minimum body size
+	 * 
+	 * @return number of bytes
+	 */
+	public static int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Get quality value of an accept-encoding part
+	 * 
+	 * @param params parameters following the encoding
+	 * @return quality value between 0 and 1, or 0 when invalid
+	 */
+	private static double quality(String[] params) {
+		for (int i = 1; i < params.length; i++) {
+			String[] kv = params[i].split("=", 2);
+			if (kv.length == 2 && kv[0].trim().equalsIgnoreCase("q")) {
+				try {
+					double q = Double.parseDouble(kv[1].trim());
+					return (q >= 0 && q <= 1) ? q : 0;
+				} catch (NumberFormatException nfe) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Select content encoding, taking quality values into account.
+	 * Gzip is preferred when both are equally acceptable.
+	 * 
+	 * @param accept value of accept-encoding header
+	 * @return gzip, deflate or null
+	 */
+	public static String negotiate(String accept) {
+		if (level <= 0 || accept == null) {
+			return null;
+		}
+		// -1: not mentioned
+		double gzip = -1;
+		double deflate = -1;
+		double any = -1;
+		for (String part: accept.split(",")) {
+			String[] enc = part.trim().split(";");
+			String name = enc[0].trim().toLowerCase(Locale.ROOT);
+			double q = quality(enc);
+			if (name.equals(GZIP) || name.equals("x-gzip")) {
+				gzip = Math.max(gzip, q);
+			} else if (name.equals(DEFLATE)) {
+				deflate = Math.max(deflate, q);
+			} else if (name.equals("*")) {
+				any = Math.max(any, q);
+			}
+		}
+		// wildcard only applies to encodings that were not mentioned
+		if (gzip < 0) {
+			gzip = any;
+		}
+		if (deflate < 0) {
+			deflate = any;
+		}
+		if (gzip <= 0 && deflate <= 0) {
+			return null;
+		}
+		return (gzip >= deflate) ? GZIP : DEFLATE;
+	}
+
+	/**
+	 * Update metrics
+	 * 
+	 * @param nanos time spent compressing
+	 * @param in number of uncompressed bytes
+	 * @param out number of compressed bytes
+	 */
+	private static void record(long nanos, long in, long out) {
+		time.update(nanos, TimeUnit.NANOSECONDS);
+		saved.inc(in - out);
+	}
+
+	/**
+	 * Wrap output stream into a compressing output stream
+	 * 
+	 * @param out output stream
+	 * @param enc gzip or deflate
+	 * @return compressing output stream
+	 * @throws IOException 
+	 */
+	private static DeflaterOutputStream wrap(OutputStream out, String enc) throws IOException {
+		if (enc.equals(GZIP)) {
+			return new GZIPOutputStream(out, 8192) {
+				{
+					def.setLevel(level);
+				}
+			};
+		}
+		return new DeflaterOutputStream(out) {
+			{
+				def.setLevel(level);
+			}
+		};
+	}
+
+	/**
+	 * Compress a byte array
+	 * 
+	 * @param body uncompressed bytes
+	 * @param enc gzip or deflate
+	 * @return compressed bytes
+	 */
+	public static byte[] encode(byte[] body, String enc) {
+		long start = System.nanoTime();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(body.length / 4);
+		try (DeflaterOutputStream out = wrap(buf, enc)) {
+			out.write(body);
+		} catch (IOException ioe) {
+			// should not happen when writing to an array
+			throw new IllegalStateException(ioe);
+		}
+		byte[] res = buf.toByteArray();
+		record(System.nanoTime() - start, body.length, res.length);
+		return res;
+	}
+
+	/**
+	 * Output stream that only starts compressing when enough bytes were written
+	 */
+	public static class CompressingOutputStream extends OutputStream {
+		private final OutputStream out;
+		private final String enc;
+		private final Runnable onCompress;
+
+		private ByteArrayOutputStream buf = new ByteArrayOutputStream(minSize);
+		private DeflaterOutputStream deflater = null;
+		private OutputStream target = null;
+		private long in = 0;
+		private long nanos = 0;
+		private boolean closed = false;
+		private final Counting counting;
+
+		/**
+		 * Counts the number of compressed bytes
+		 */
+		private static class Counting extends OutputStream {
+			private final OutputStream out;
+			private long count = 0;
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				count++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				count += len;
+			}
+
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+			}
+
+			Counting(OutputStream out) {
+				this.out = out;
+			}
+		}
+
+		/**
+		 * Decide whether to compress, and write buffered bytes
+		 * 
+		 * @param compress true to compress 
+		 * @throws IOException 
+		 */
+		private void start(boolean compress) throws IOException {
+			if (compress) {
+				onCompress.run();
+				deflater = wrap(counting, enc);
+				target = deflater;
+			} else {
+				target = out;
+			}
+			byte[] b = buf.toByteArray();
+			buf = null;
+			write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (target == null) {
+				buf.write(b, off, len);
+				if (buf.size() >= minSize) {
+					start(true);
+				}
+				return;
+			}
+			if (deflater != null) {
+				long begin = System.nanoTime();
+				deflater.write(b, off, len);
+				nanos += System.nanoTime() - begin;
+				in += len;
+			} else {
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (target != null) {
+				target.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (target == null) {
+				start(false);
+			}
+			if (deflater != null) {
+				long begin = System.nanoTime();
+				deflater.close();
+				nanos += System.nanoTime() - begin;
+				record(nanos, in, counting.count);
+			}
+			out.close();
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param out output stream
+		 * @param enc gzip or deflate
+		 * @param onCompress called before the first compressed byte is written
+		 */
+		public CompressingOutputStream(OutputStream out, String enc, Runnable onCompress) {
+			this.out = out;
+			this.enc = enc;
+			this.onCompress = onCompress;
+			this.counting = new Counting(out);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of rendered (serialized) fragments, bounded by the total number of bytes.
+ * 
+ * @author Bart.Hanssens
+ */
+public class FragmentCache {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(FragmentCache.class);
+
+	private static Cache<String, Fragment> cache = null;
+
+	private static Meter hits = new Meter();
+	private static Meter misses = new Meter();
+	private static Meter evictions = new Meter();
+
+	/**
+	 * Rendered fragment
+	 */
+	public static class Fragment {
+		private final byte[] body;
+		private final String mediaType;
+		private final Map<String, Object> headers;
+		private final String graph;
+		private final Map<String, byte[]> encoded = new ConcurrentHashMap<>(2);
+
+		/**
+		 * Get serialized fragment
+		 * 
+		 * @return bytes
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Get number of bytes, including the compressed variants
+		 * 
+		 * @return number of bytes
+		 */
+		private int getWeight() {
+			int weight = body.length;
+			for (byte[] b: encoded.values()) {
+				weight += b.length;
+			}
+			return weight;
+		}
+
+		/**
+		 * Get content type
+		 * 
+		 * @return media type as string
+		 */
+		public String getMediaType() {
+			return mediaType;
+		}
+
+		/**
+		 * Get additional HTTP headers, like CORS
+		 * 
+		 * @return map of header names and values
+		 */
+		public Map<String, Object> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * Get named graph the fragment was taken from
+		 * 
+		 * @return graph IRI as string or null for all graphs
+		 */
+		public String getGraph() {
+			return graph;
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param body serialized fragment
+		 * @param mediaType content type
+		 * @param headers additional headers
+		 * @param graph named graph or null
+		 */
+		public Fragment(byte[] body, String mediaType, Map<String, Object> headers, String graph) {
+			this.body = body;
+			this.mediaType = mediaType;
+			this.headers = headers;
+			this.graph = graph;
+		}
+	}
+
+	/**
+	 * Configure cache size and register metrics
+	 * 
+	 * @param maxBytes maximum number of bytes, 0 to disable caching
+	 * @param metrics metrics registry
+	 */
+	public static void configure(long maxBytes, MetricRegistry metrics) {
+		if (maxBytes <= 0) {
+			cache = null;
+			return;
+		}
+		cache = CacheBuilder.newBuilder()
+						.maximumWeight(maxBytes)
+						.<String, Fragment>weigher((k, v) -> k.length() * 2 + v.getWeight())
+						.removalListener(n -> {
+							if (n.getCause() == RemovalCause.SIZE) {
+								evictions.mark();
+							}
+						})
+						.build();
+		hits = metrics.meter(MetricRegistry.name(FragmentCache.class, "hits"));
+		misses = metrics.meter(MetricRegistry.name(FragmentCache.class, "misses"));
+		evictions = metrics.meter(MetricRegistry.name(FragmentCache.class, "evictions"));
+		metrics.register(MetricRegistry.name(FragmentCache.class, "entries"),
+						(Gauge<Long>) () -> cache.size());
+	}
+
+	/**
+	 * Check if cache is enabled
+	 * 
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return cache != null;
+	}
+
+	/**
+	 * Get rendered fragment
+	 * 
+	 * @param key normalized request
+	 * @return fragment or null when not found
+	 */
+	public static Fragment get(String key) {
+		if (cache == null) {
+			return null;
+		}
+		Fragment f = cache.getIfPresent(key);
+		if (f != null) {
+			hits.mark();
+		} else {
+			misses.mark();
+		}
+		return f;
+	}
+
+	/**
+	 * Get compressed rendered fragment.
+	 * The fragment is only compressed once per encoding, when it is requested,
+	 * and then weighed again, so the cache stays within its size.
+	 * 
+	 * @param key normalized request
+	 * @param f fragment
+	 * @param enc content encoding
+	 * @return compressed bytes
+	 */
+	public static byte[] getBody(String key, Fragment f, String enc) {
+		byte[] b = f.encoded.get(enc);
+		if (b == null) {
+			b = f.encoded.computeIfAbsent(enc, e -> Compression.encode(f.body, e));
+			if (cache != null) {
+				cache.asMap().replace(key, f, f);
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Store rendered fragment
+	 * 
+	 * @param key normalized request
+	 * @param f fragment
+	 */
+	public static void put(String key, Fragment f) {
+		if (cache != null) {
+			cache.put(key, f);
+		}
+	}
+
+	/**
+	 * Remove fragments taken from a graph, and those taken from all graphs
+	 * 
+	 * @param graph named graph or null to remove all fragments
+	 */
+	public static void invalidate(String graph) {
+		if (cache == null) {
+			return;
+		}
+		if (graph == null) {
+			clear();
+			return;
+		}
+		LOG.info("Removing cached fragments of {}", graph);
+		cache.asMap().values().removeIf(f -> f.getGraph() == null || f.getGraph().equals(graph));
+	}
+
+	/**
+	 * Remove all fragments
+	 */
+	public static void clear() {
+		if (cache != null) {
+			LOG.info("Removing all cached fragments");
+			cache.invalidateAll();
+		}
+	}
+}
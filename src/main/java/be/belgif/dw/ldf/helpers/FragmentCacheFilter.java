@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import be.belgif.dw.ldf.query.QueryHelper;
+
+import com.google.common.net.HttpHeaders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Serve rendered fragments from the cache, or store them after rendering.
+ * 
+ * @author Bart.Hanssens
+ */
+@Provider
+@Cached
+public class FragmentCacheFilter implements ContainerRequestFilter, 
+								ContainerResponseFilter, WriterInterceptor {
+	private final static String KEY = FragmentCacheFilter.class.getName() + ".key";
+	private final static String GRAPH = FragmentCacheFilter.class.getName() + ".graph";
+	private final static String VERSION = FragmentCacheFilter.class.getName() + ".version";
+
+	private final static String[] PARAMS = { "s", "p", "o", "g", "q", "page", "cursor" };
+	private final static String[] HEADERS = { HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN };
+
+	@Context
+	private ResourceInfo info;
+
+	/**
+	 * Select the media type the resource would produce
+	 * 
+	 * @param accept media types accepted by the client, by preference
+	 * @return media type or null
+	 */
+	private MediaType negotiate(List<MediaType> accept) {
+		Produces produces = info.getResourceMethod().getAnnotation(Produces.class);
+		if (produces == null) {
+			return null;
+		}
+		for (MediaType mt: accept) {
+			for (String p: produces.value()) {
+				MediaType candidate = MediaType.valueOf(p);
+				if (mt.isCompatible(candidate)) {
+					return candidate;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Build normalized key from request parameters and media type
+	 * 
+	 * @param uri request URI
+	 * @param mt media type
+	 * @return key
+	 */
+	private static String key(UriInfo uri, MediaType mt) {
+		MultivaluedMap<String, String> params = uri.getQueryParameters();
+		StringBuilder buf = new StringBuilder(uri.getPath());
+		for (String param: PARAMS) {
+			String val = params.getFirst(param);
+			buf.append('\n');
+			if (val != null && !val.isEmpty()) {
+				buf.append(val);
+			}
+		}
+		return buf.append('\n').append(mt.toString()).toString();
+	}
+
+	@Override
+	public void filter(ContainerRequestContext req) throws IOException {
+		if (!FragmentCache.isEnabled() || !req.getMethod().equals(HttpMethod.GET)) {
+			return;
+		}
+		MediaType mt = negotiate(req.getAcceptableMediaTypes());
+		if (mt == null) {
+			return;
+		}
+		String key = key(req.getUriInfo(), mt);
+
+		FragmentCache.Fragment f = FragmentCache.get(key);
+		if (f != null) {
+			// cache is emptied on changes, so the version is still the current one
+			String enc = Compression.negotiate(req.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+			Date date = StoreVersion.getLastModified(f.getGraph());
+			EntityTag etag = StoreVersion.getETag(f.getGraph(), mt, enc);
+
+			Response.ResponseBuilder rb = req.getRequest().evaluatePreconditions(date, etag);
+			if (rb == null) {
+				if (enc != null && f.getBody().length >= Compression.getMinSize()) {
+					rb = Response.ok(FragmentCache.getBody(key, f, enc), f.getMediaType())
+								.header(HttpHeaders.CONTENT_ENCODING, enc);
+				} else {
+					rb = Response.ok(f.getBody(), f.getMediaType());
+				}
+			}
+			for (Map.Entry<String, Object> header: f.getHeaders().entrySet()) {
+				rb.header(header.getKey(), header.getValue());
+			}
+			req.abortWith(rb.tag(etag).lastModified(date)
+							.header(HttpHeaders.VARY, Compression.VARY).build());
+			return;
+		}
+
+		String vocab = req.getUriInfo().getPathParameters().getFirst("vocab");
+		String graph = (vocab != null && !vocab.isEmpty()) 
+								? QueryHelper.asGraph(vocab).stringValue() : null;
+		req.setProperty(KEY, key);
+		req.setProperty(GRAPH, graph);
+		req.setProperty(VERSION, StoreVersion.getVersion(graph));
+	}
+
+	@Override
+	public void filter(ContainerRequestContext req, ContainerResponseContext resp) 
+														throws IOException {
+		// only store complete, successful responses
+		if (resp.getStatus() != Response.Status.OK.getStatusCode()) {
+			req.removeProperty(KEY);
+		}
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext ctx) 
+									throws IOException, WebApplicationException {
+		String key = (String) ctx.getProperty(KEY);
+		if (key == null) {
+			ctx.proceed();
+			return;
+		}
+
+		// copy the bytes while they are being sent to the client
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		ctx.setOutputStream(new FilterOutputStream(ctx.getOutputStream()) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				buf.write(b);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				buf.write(b, off, len);
+			}
+		});
+		ctx.proceed();
+
+		// do not store the result if the store changed in the mean time
+		String graph = (String) ctx.getProperty(GRAPH);
+		if (!ctx.getProperty(VERSION).equals(StoreVersion.getVersion(graph))) {
+			return;
+		}
+		Map<String, Object> headers = new HashMap<>();
+		for (String header: HEADERS) {
+			Object val = ctx.getHeaders().getFirst(header);
+			if (val != null) {
+				headers.put(header, val);
+			}
+		}
+		FragmentCache.put(key, new FragmentCache.Fragment(buf.toByteArray(), 
+						ctx.getMediaType().toString(), headers, graph));
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Timers and histograms for the stages of a Linked Data Fragment request,
+ * per binding shape (e.g. "s??", "?po") and per scope (graph or all).
+ * 
+ * Metric names are "be.belgif.dw.ldf.helpers.FragmentMetrics.[stage].[shape].[scope]"
+ * 
+ * @author Bart.Hanssens
+ */
+public class FragmentMetrics {
+	// index: bound subject 4, predicate 2, object 1, plus 8 when scoped to a graph
+	private static Stages[] stages = create(null);
+
+	/**
+	 * Metrics for one binding shape and scope
+	 */
+	public static class Stages {
+		private final Timer count;
+		private final Timer fetch;
+		private final Timer controls;
+		private final Timer serialize;
+		private final Histogram resultSize;
+		private final Histogram responseBytes;
+		private final Histogram pageDepth;
+
+		/**
+		 * Get timer for counting the matching triples
+		 * 
+		 * @return timer
+		 */
+		public Timer getCount() {
+			return count;
+		}
+
+		/**
+		 * Get timer for getting the triples of the page
+		 * 
+		 * @return timer
+		 */
+		public Timer getFetch() {
+			return fetch;
+		}
+
+		/**
+		 * Get timer for adding hypermedia controls
+		 * 
+		 * @return timer
+		 */
+		public Timer getControls() {
+			return controls;
+		}
+
+		/**
+		 * Get timer for writing the response
+		 * 
+		 * @return timer
+		 */
+		public Timer getSerialize() {
+			return serialize;
+		}
+
+		/**
+		 * Record total number of matching triples and page number
+		 * 
+		 * @param count number of triples
+		 * @param page page number, starting at 1
+		 */
+		public void update(long count, int page) {
+			resultSize.update(count);
+			pageDepth.update(page);
+		}
+
+		/**
+		 * Record size of the (uncompressed) response
+		 * 
+		 * @param bytes number of bytes
+		 */
+		public void updateBytes(long bytes) {
+			responseBytes.update(bytes);
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param metrics registry or null for unregistered metrics
+		 * @param shape binding shape
+		 * @param scope graph or all
+		 */
+		private Stages(MetricRegistry metrics, String shape, String scope) {
+			String tags = shape + "." + scope;
+			count = timer(metrics, "count", tags);
+			fetch = timer(metrics, "fetch", tags);
+			controls = timer(metrics, "hyper-controls", tags);
+			serialize = timer(metrics, "serialize", tags);
+			resultSize = histogram(metrics, "result-size", tags);
+			responseBytes = histogram(metrics, "response-bytes", tags);
+			pageDepth = histogram(metrics, "page-depth", tags);
+		}
+	}
+
+	/**
+	 * Get or create timer
+	 * 
+	 * @param metrics registry or null
+	 * @param stage name of the stage
+	 * @param tags shape and scope
+	 * @return timer
+	 */
+	private static Timer timer(MetricRegistry metrics, String stage, String tags) {
+		return (metrics != null) 
+				? metrics.timer(MetricRegistry.name(FragmentMetrics.class, stage, tags))
+				: new Timer();
+	}
+
+	/**
+	 * Get or create histogram
+	 * 
+	 * @param metrics registry or null
+	 * @param name name of the histogram
+	 * @param tags shape and scope
+	 * @return histogram
+	 */
+	private static Histogram histogram(MetricRegistry metrics, String name, String tags) {
+		return (metrics != null)
+				? metrics.histogram(MetricRegistry.name(FragmentMetrics.class, name, tags))
+				: new Histogram(new ExponentiallyDecayingReservoir());
+	}
+
+	/**
+	 * Create metrics for all shapes and scopes
+	 * 
+	 * @param metrics registry or null
+	 * @return array of metrics
+	 */
+	private static Stages[] create(MetricRegistry metrics) {
+		Stages[] arr = new Stages[16];
+		for (int i = 0; i < arr.length; i++) {
+			String shape = (((i & 4) != 0) ? "s" : "?") + (((i & 2) != 0) ? "p" : "?")
+							+ (((i & 1) != 0) ? "o" : "?");
+			arr[i] = new Stages(metrics, shape, ((i & 8) != 0) ? "graph" : "all");
+		}
+		return arr;
+	}
+
+	/**
+	 * Register metrics
+	 * 
+	 * @param metrics metrics registry
+	 */
+	public static void configure(MetricRegistry metrics) {
+		stages = create(metrics);
+	}
+
+	/**
+	 * Get metrics for a binding shape and scope
+	 * 
+	 * @param s true if subject is bound
+	 * @param p true if predicate is bound
+	 * @param o true if object is bound
+	 * @param scoped true if restricted to a named graph
+	 * @return metrics
+	 */
+	public static Stages get(boolean s, boolean p, boolean o, boolean scoped) {
+		return stages[(s ? 4 : 0) + (p ? 2 : 0) + (o ? 1 : 0) + (scoped ? 8 : 0)];
+	}
+}
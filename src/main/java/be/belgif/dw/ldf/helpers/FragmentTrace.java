@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and other details of a single fragment request.
+ * 
+ * Updates the fragment metrics, and is passed to the slow fragment recorder 
+ * when the response has been written.
+ * 
+ * @author Bart.Hanssens
+ */
+public class FragmentTrace {
+	private final FragmentMetrics.Stages metrics;
+	private final long started = System.currentTimeMillis();
+	private final long start = System.nanoTime();
+	private final String s;
+	private final String p;
+	private final String o;
+	private final String vocab;
+	private final int page;
+
+	private final StringBuilder plan = new StringBuilder();
+	private long results;
+	private long count;
+	private long fetch;
+	private long controls;
+	private long serialize;
+	private long total;
+	private long bytes;
+
+	/**
+	 * Get total time, from the start of the request until the response was written
+	 * 
+	 * @return nanoseconds
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Add a step to the description of how the fragment was evaluated
+	 * 
+	 * @param step description
+	 */
+	public void addPlan(String step) {
+		if (plan.length() > 0) {
+			plan.append(", ");
+		}
+		plan.append(step);
+	}
+
+	/**
+	 * Record time spent counting the matching triples
+	 * 
+	 * @param nanos nanoseconds
+	 * @param results (estimated) number of triples
+	 */
+	public void count(long nanos, long results) {
+		this.count = nanos;
+		this.results = results;
+		metrics.getCount().update(nanos, TimeUnit.NANOSECONDS);
+		metrics.update(results, page);
+	}
+
+	/**
+	 * Record time spent getting the triples of the page
+	 * 
+	 * @param nanos nanoseconds
+	 */
+	public void fetch(long nanos) {
+		this.fetch = nanos;
+		metrics.getFetch().update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record time spent adding hypermedia controls
+	 * 
+	 * @param nanos nanoseconds
+	 */
+	public void controls(long nanos) {
+		this.controls = nanos;
+		metrics.getControls().update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record time spent writing the response, and finish the trace
+	 * 
+	 * @param nanos nanoseconds
+	 * @param bytes number of (uncompressed) bytes
+	 */
+	public void serialize(long nanos, long bytes) {
+		this.serialize = nanos;
+		this.bytes = bytes;
+		this.total = System.nanoTime() - start;
+		metrics.getSerialize().update(nanos, TimeUnit.NANOSECONDS);
+		metrics.updateBytes(bytes);
+		SlowFragments.record(this);
+	}
+
+	/**
+	 * Convert nanoseconds to milliseconds
+	 * 
+	 * @param nanos nanoseconds
+	 * @return milliseconds
+	 */
+	private static String ms(long nanos) {
+		return String.format("%.1fms", nanos / 1e6);
+	}
+
+	@Override
+	public String toString() {
+		return Instant.ofEpochMilli(started) + " total=" + ms(total)
+			+ " count=" + ms(count) + " fetch=" + ms(fetch) 
+			+ " controls=" + ms(controls) + " serialize=" + ms(serialize)
+			+ " results=" + results + " page=" + page + " bytes=" + bytes 
+			+ " graph=" + (vocab.isEmpty() ? "*" : vocab)
+			+ " s=" + s + " p=" + p + " o=" + o 
+			+ " plan=[" + plan + "]";
+	}
+
+	/**
+	 * Constructor, starts the timing
+	 * 
+	 * @param s subject parameter or null
+	 * @param p predicate parameter or null
+	 * @param o object parameter or null
+	 * @param vocab vocabulary / graph name or empty string
+	 * @param page page number, starting at 1
+	 * @param metrics metrics for this binding shape and scope
+	 */
+	public FragmentTrace(String s, String p, String o, String vocab, int page,
+							FragmentMetrics.Stages metrics) {
+		this.s = s;
+		this.p = p;
+		this.o = o;
+		this.vocab = vocab;
+		this.page = page;
+		this.metrics = metrics;
+	}
+}
@@ -36,7 +36,9 @@ import org.eclipse.rdf4j.rio.RDFFormat;
  */
 public class RDFMediaType {
 	// can't use RDFFormat.xyz.toString(): not constant
+	public final static String BINARY = "application/x-binary-rdf";
 	public final static String JSONLD = "application/ld+json";
+	public final static String NQUADS = "application/n-quads";
 	public final static String NTRIPLES = "application/n-triples";
 	public final static String TRIG = "application/trig";
 	public final static String TTL = "text/turtle";
@@ -52,6 +54,8 @@ public class RDFMediaType {
 	
 		// check for content type, ignoring the charset
 		switch(mt.getType() + "/" + mt.getSubtype()) {
+			case RDFMediaType.BINARY: fmt = RDFFormat.BINARY; break;
+			case RDFMediaType.NQUADS: fmt = RDFFormat.NQUADS; break;
 			case RDFMediaType.NTRIPLES: fmt = RDFFormat.NTRIPLES; break;
 			case RDFMediaType.TTL: fmt = RDFFormat.TURTLE; break;
 			case RDFMediaType.TRIG: fmt = RDFFormat.TRIG; break;
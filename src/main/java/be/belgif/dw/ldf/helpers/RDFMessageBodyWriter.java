@@ -53,14 +53,16 @@ import org.eclipse.rdf4j.rio.Rio;
  * @author Bart.Hanssens
  */
 @Provider
-@Produces({RDFMediaType.JSONLD + ";charset=utf-8", 
+@Produces({RDFMediaType.BINARY,
+			RDFMediaType.JSONLD + ";charset=utf-8", 
+			RDFMediaType.NQUADS + ";charset=utf-8", 
 			RDFMediaType.NTRIPLES + ";charset=utf-8", 
 			RDFMediaType.TTL + ";charset=utf-8",
 			RDFMediaType.TRIG + ";charset=utf-8"})
 public class RDFMessageBodyWriter implements MessageBodyWriter<Model> {
 	@Override
 	public boolean isWriteable(Class<?> type, Type generic, Annotation[] antns, MediaType mt) {
-		return generic == Model.class;
+		return Model.class.isAssignableFrom(type);
 	}
 
 	@Override
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import be.belgif.dw.ldf.vocab.Hydra;
+
+import java.io.Closeable;
+
+import org.eclipse.rdf4j.RDF4JException;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statements to be streamed to the client, without copying them in a model first.
+ * 
+ * The (small) head, e.g. Hydra metadata and namespaces, is written first,
+ * followed by the results of the still open query or iteration.
+ * The connection is closed when the stream is closed, which is safe to do more than once.
+ * 
+ * @author Bart.Hanssens
+ */
+public class RDFStream implements Closeable {
+	private final Logger LOG = (Logger) LoggerFactory.getLogger(RDFStream.class);
+
+	private final Model head;
+	private final CloseableIteration<Statement, ? extends RDF4JException> body;
+	private final RepositoryConnection conn;
+	private final boolean cors;
+	private FragmentTrace trace;
+	private boolean closed = false;
+
+	/**
+	 * Get the statements to be written first, including the namespaces
+	 * 
+	 * @return model
+	 */
+	public Model getHead() {
+		return head;
+	}
+
+	/**
+	 * Get the statements to be streamed
+	 * 
+	 * @return iteration
+	 */
+	public CloseableIteration<Statement, ? extends RDF4JException> getBody() {
+		return body;
+	}
+
+	/**
+	 * Check if cross-origin requests should be allowed, e.g. for LDF clients
+	 * 
+	 * @return true if CORS header is to be set
+	 */
+	public boolean isCors() {
+		return cors;
+	}
+
+	/**
+	 * Get request trace to update when writing the stream
+	 * 
+	 * @return trace or null
+	 */
+	public FragmentTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Set request trace to update when writing the stream
+	 * 
+	 * @param trace trace or null
+	 */
+	public void setTrace(FragmentTrace trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * Check if there is nothing to write
+	 * 
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return head.isEmpty() && !body.hasNext();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			body.close();
+		} catch (RDF4JException e) {
+			LOG.warn("Could not close iteration", e);
+		} finally {
+			if (conn != null) {
+				conn.close();
+			}
+		}
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param head statements and namespaces to write first
+	 * @param body statements to stream
+	 * @param conn connection to close afterwards, or null
+	 */
+	public RDFStream(Model head, CloseableIteration<Statement, ? extends RDF4JException> body, 
+													RepositoryConnection conn) {
+		this.head = head;
+		this.body = body;
+		this.conn = conn;
+		this.cors = head.contains(null, Hydra.MAPPING, null);
+	}
+}
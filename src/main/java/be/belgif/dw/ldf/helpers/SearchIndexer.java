@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import be.belgif.dw.ldf.tasks.Job;
+import be.belgif.dw.ldf.tasks.Jobs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RateLimitedIndexOutput;
+import org.apache.lucene.store.RateLimiter;
+
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.Sail;
+import org.eclipse.rdf4j.sail.helpers.NotifyingSailWrapper;
+import org.eclipse.rdf4j.sail.lucene.LuceneIndex;
+import org.eclipse.rdf4j.sail.lucene.LuceneSail;
+import org.eclipse.rdf4j.sail.lucene.SearchIndex;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper class for updating the full text index per named graph.
+ * 
+ * Imports and clears can skip the full text index, the named graphs are then
+ * marked as "dirty" until they are reindexed.
+ * 
+ * The index is updated outside of the lucene sail, and a rollback discards all
+ * uncommitted changes, so this must run as a job on the whole store, 
+ * without other jobs writing via the sail at the same time.
+ * 
+ * @author Bart.Hanssens
+ */
+public class SearchIndexer {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(SearchIndexer.class);
+
+	// pointer file, next to the configured directory, containing the active directory
+	private final static String POINTER = ".current";
+	private final static String SHADOW = "-shadow";
+	// time before a replaced index is shut down
+	private final static long RETIRE_MS = 60_000;
+
+	private final static Set<String> DIRTY = new TreeSet<>();
+	private static Path dirtyFile = null;
+
+	private final static ScheduledExecutorService RETIRER = 
+		Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lucene-retire");
+			t.setDaemon(true);
+			return t;
+		});
+	private static ScheduledFuture<?> retiring = null;
+	private static long retiredAt = 0;
+
+	/**
+	 * Lucene directory with a write rate limit, which can be lifted
+	 */
+	private static class ThrottledDirectory extends FilterDirectory {
+		private volatile RateLimiter limiter;
+
+		@Override
+		public IndexOutput createOutput(String name, IOContext ctx) throws IOException {
+			IndexOutput out = super.createOutput(name, ctx);
+			RateLimiter l = limiter;
+			return (l != null) ? new RateLimitedIndexOutput(l, out) : out;
+		}
+
+		/**
+		 * Remove rate limit
+		 */
+		void unthrottle() {
+			if (limiter != null) {
+				// files still being written
+				limiter.setMBPerSec(Double.MAX_VALUE);
+				limiter = null;
+			}
+		}
+
+		ThrottledDirectory(Directory dir, double mbPerSec) {
+			super(dir);
+			this.limiter = (mbPerSec > 0) ? new RateLimiter.SimpleRateLimiter(mbPerSec) : null;
+		}
+	}
+
+	/**
+	 * Load list of dirty graphs, if any
+	 * 
+	 * @param file file containing the dirty graphs, one per line
+	 */
+	public static void configure(Path file) {
+		dirtyFile = file;
+		synchronized (DIRTY) {
+			DIRTY.clear();
+			if (Files.isReadable(file)) {
+				try {
+					DIRTY.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+					DIRTY.remove("");
+				} catch (IOException ioe) {
+					LOG.error("Could not read list of dirty graphs", ioe);
+				}
+			}
+			if (!DIRTY.isEmpty()) {
+				LOG.warn("Full text index not up to date for {}", DIRTY);
+			}
+		}
+	}
+
+	/**
+	 * Write the list of dirty graphs, so it survives a restart
+	 */
+	private static void save() {
+		if (dirtyFile == null) {
+			return;
+		}
+		try {
+			Files.write(dirtyFile, DIRTY, StandardCharsets.UTF_8);
+		} catch (IOException ioe) {
+			LOG.error("Could not write list of dirty graphs", ioe);
+		}
+	}
+
+	/**
+	 * Mark a named graph as not being (fully) indexed
+	 * 
+	 * @param graph named graph or null for the default graph
+	 */
+	public static void markDirty(String graph) {
+		synchronized (DIRTY) {
+			if (DIRTY.add((graph != null) ? graph : "")) {
+				save();
+			}
+		}
+	}
+
+	/**
+	 * Get dirty graphs
+	 * 
+	 * @return list of named graphs, empty string for default graph
+	 */
+	public static List<String> getDirty() {
+		synchronized (DIRTY) {
+			return new ArrayList<>(DIRTY);
+		}
+	}
+
+	/**
+	 * Get the full text sail, if any
+	 * 
+	 * @param repo repository
+	 * @return lucene sail or null
+	 */
+	public static LuceneSail getLuceneSail(Repository repo) {
+		if (repo instanceof SailRepository) {
+			Sail sail = ((SailRepository) repo).getSail();
+			if (sail instanceof LuceneSail) {
+				return (LuceneSail) sail;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get repository writing directly to the underlying store,
+	 * without updating the full text index.
+	 * 
+	 * @param repo repository
+	 * @return repository without full text index
+	 */
+	public static Repository getBaseRepository(Repository repo) {
+		LuceneSail lucene = getLuceneSail(repo);
+		if (lucene == null) {
+			return repo;
+		}
+		// wrapper prevents the store from being shut down
+		return new SailRepository(new NotifyingSailWrapper(lucene.getBaseSail()) {
+			@Override
+			public void shutDown() {
+			}
+		});
+	}
+
+	/**
+	 * Add documents to the full text index
+	 * 
+	 * @param lucene lucene sail
+	 * @param index full text index
+	 * @param res statements, sorted by subject
+	 * @param job job for progress and cancellation
+	 * @throws IOException 
+	 */
+	private static void addDocuments(LuceneSail lucene, SearchIndex index, 
+							RepositoryResult<Statement> res, Job job) throws IOException {
+		Resource subj = null;
+		List<Statement> docs = new ArrayList<>();
+		while (res.hasNext()) {
+			Statement st = res.next();
+			job.addStatements(1);
+			if (!st.getSubject().equals(subj)) {
+				if (!docs.isEmpty()) {
+					index.addDocuments(subj, docs);
+					docs = new ArrayList<>();
+					job.checkCancelled();
+				}
+				subj = st.getSubject();
+			}
+			if (st.getObject() instanceof Literal) {
+				Statement mapped = lucene.mapStatement(st);
+				if (mapped != null) {
+					docs.add(mapped);
+				}
+			}
+		}
+		if (!docs.isEmpty()) {
+			index.addDocuments(subj, docs);
+		}
+	}
+
+	/**
+	 * Rebuild the documents of one named graph in a full text index.
+	 * 
+	 * @param repo repository
+	 * @param index full text index
+	 * @param graph named graph or empty string for the default graph
+	 * @param job job for progress and cancellation
+	 */
+	private static void reindex(Repository repo, SearchIndex index, String graph, Job job) {
+		LuceneSail lucene = getLuceneSail(repo);
+		Repository base = getBaseRepository(repo);
+		Resource ctx = graph.isEmpty() ? null : base.getValueFactory().createIRI(graph);
+
+		LOG.info("Reindexing graph {}", graph);
+		try (RepositoryConnection conn = base.getConnection();
+			RepositoryResult<Statement> res = conn.getStatements(null, null, null, false, ctx)) {
+			index.begin();
+			try {
+				index.clearContexts(ctx);
+				// statements are sorted by subject (spoc or cspo index)
+				addDocuments(lucene, index, res, job);
+				index.commit();
+			} catch (IOException | RuntimeException e) {
+				index.rollback();
+				throw e;
+			}
+		} catch (IOException ioe) {
+			throw new WebApplicationException("Error reindexing", ioe);
+		}
+
+		synchronized (DIRTY) {
+			if (DIRTY.remove(graph)) {
+				save();
+			}
+		}
+		LOG.info("Done reindexing graph {}", graph);
+	}
+
+	/**
+	 * Rebuild the full text index for one named graph.
+	 * The old documents remain searchable until the new ones are committed.
+	 * 
+	 * @param repo repository
+	 * @param graph named graph or empty string for the default graph
+	 * @param job job for progress and cancellation
+	 */
+	public static void reindex(Repository repo, String graph, Job job) {
+		LuceneSail lucene = getLuceneSail(repo);
+		if (lucene == null) {
+			throw new WebApplicationException("No full text index");
+		}
+		checkExclusive();
+		reindex(repo, lucene.getLuceneIndex(), graph, job);
+	}
+
+	/**
+	 * Make sure no other job can write to the store
+	 */
+	private static void checkExclusive() {
+		if (!Jobs.isExclusive()) {
+			throw new IllegalStateException(
+					"Full text index can only be updated by a job on the whole store");
+		}
+	}
+
+	/**
+	 * Reindex the graphs changed after a given version
+	 * 
+	 * @param repo repository
+	 * @param index full text index
+	 * @param version store version
+	 * @param job job for progress and cancellation
+	 * @return false if (possibly) all graphs were changed, nothing is reindexed in that case
+	 */
+	private static boolean catchUp(Repository repo, SearchIndex index, long version, Job job) {
+		List<String> graphs = StoreVersion.getChangedSince(version);
+		if (graphs == null) {
+			return false;
+		}
+		for (String graph: graphs) {
+			reindex(repo, index, graph, job);
+		}
+		return true;
+	}
+
+	/**
+	 * Mark all graphs as dirty, e.g. when it is unknown which graphs were changed
+	 * 
+	 * @param repo repository
+	 */
+	private static void markAllDirty(Repository repo) {
+		markDirty(null);
+		try (RepositoryConnection conn = getBaseRepository(repo).getConnection();
+			RepositoryResult<Resource> ctxs = conn.getContextIDs()) {
+			while (ctxs.hasNext()) {
+				markDirty(ctxs.next().stringValue());
+			}
+		}
+		LOG.warn("Full text index not up to date, reindex dirty graphs");
+	}
+
+	/**
+	 * Get the directory currently used by the full text index.
+	 * This is either the configured directory, or a sibling "shadow" directory.
+	 * 
+	 * @param luceneDir configured directory
+	 * @return directory
+	 */
+	public static String getActiveDir(String luceneDir) {
+		Path pointer = Paths.get(luceneDir + POINTER);
+		try {
+			if (Files.isReadable(pointer)) {
+				String dir = new String(Files.readAllBytes(pointer), StandardCharsets.UTF_8).trim();
+				if (Files.isDirectory(Paths.get(dir))) {
+					return dir;
+				}
+			}
+		} catch (IOException ioe) {
+			LOG.error("Could not read {}", pointer, ioe);
+		}
+		return luceneDir;
+	}
+
+	/**
+	 * Build a new full text index in a sibling directory,
+	 * and replace the current index when done.
+	 * 
+	 * The current index remains in use while the new one is being built,
+	 * the new index only contains changes made during the rebuild once
+	 * they have been indexed, right before and after the swap.
+	 * 
+	 * @param repo repository
+	 * @param luceneDir configured directory
+	 * @param mbPerSec maximum write rate in MB per second, 0 for unlimited
+	 * @param job job for progress and cancellation
+	 */
+	public static void rebuild(Repository repo, String luceneDir, double mbPerSec, Job job) {
+		LuceneSail lucene = getLuceneSail(repo);
+		if (lucene == null) {
+			throw new WebApplicationException("No full text index");
+		}
+		checkExclusive();
+		// the directory of the previous index is reused, so it must be closed
+		checkRetired();
+
+		String active = getActiveDir(luceneDir);
+		Path shadow = Paths.get(active.equals(luceneDir) ? luceneDir + SHADOW : luceneDir);
+		LOG.info("Rebuilding full text index in {}", shadow);
+
+		long version = StoreVersion.getVersion(null);
+		ThrottledDirectory dir = null;
+		LuceneIndex index = null;
+		try {
+			deleteDir(shadow);
+			Files.createDirectories(shadow);
+			dir = new ThrottledDirectory(FSDirectory.open(shadow), mbPerSec);
+			index = new LuceneIndex(dir, createAnalyzer(lucene));
+
+			try (RepositoryConnection conn = getBaseRepository(repo).getConnection();
+				RepositoryResult<Statement> res = conn.getStatements(null, null, null, false)) {
+				index.begin();
+				addDocuments(lucene, index, res, job);
+				index.commit();
+			}
+			// changes made during the rebuild
+			for (int i = 0; i < 3 && StoreVersion.getVersion(null) != version; i++) {
+				long v = StoreVersion.getVersion(null);
+				if (!catchUp(repo, index, version, job)) {
+					throw new WebApplicationException("Store changed while rebuilding");
+				}
+				version = v;
+			}
+			job.checkCancelled();
+			dir.unthrottle();
+		} catch (IOException | RuntimeException e) {
+			if (index != null) {
+				try {
+					index.shutDown();
+				} catch (IOException ioe) {
+					LOG.warn("Could not close new index", ioe);
+				}
+			}
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			throw new WebApplicationException("Error rebuilding index", e);
+		}
+
+		// swap
+		synchronized (SearchIndexer.class) {
+			SearchIndex retired = lucene.getLuceneIndex();
+			lucene.setLuceneIndex(index);
+			// the previous index may still be in use by a few connections
+			retiredAt = System.currentTimeMillis();
+			retiring = RETIRER.schedule(() -> shutdown(retired), RETIRE_MS, TimeUnit.MILLISECONDS);
+		}
+		try {
+			Path tmp = Paths.get(luceneDir + POINTER + ".tmp");
+			Files.write(tmp, shadow.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, Paths.get(luceneDir + POINTER), 
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ioe) {
+			LOG.error("Could not write pointer to new index", ioe);
+		}
+		// changes made right before the swap, still added to the old index
+		if (!catchUp(repo, index, version, Job.NONE)) {
+			markAllDirty(repo);
+		}
+		LOG.info("Full text index now in {}", shadow);
+	}
+
+	/**
+	 * Shut down a replaced index
+	 * 
+	 * @param retired previous index
+	 */
+	private static void shutdown(SearchIndex retired) {
+		try {
+			retired.shutDown();
+			LOG.info("Previous full text index closed");
+		} catch (IOException ioe) {
+			LOG.warn("Could not close previous index", ioe);
+		}
+	}
+
+	/**
+	 * Check if the previous index has been shut down
+	 * 
+	 * @throws WebApplicationException if the previous index is still open
+	 */
+	private static synchronized void checkRetired() {
+		if (retiring != null && !retiring.isDone()) {
+			long wait = RETIRE_MS - (System.currentTimeMillis() - retiredAt);
+			throw new WebApplicationException("Previous index still in use, retry in " 
+							+ Math.max(1, wait / 1000) + " seconds", Response.Status.CONFLICT);
+		}
+	}
+
+	/**
+	 * Create an analyzer like the one used by the lucene sail
+	 * 
+	 * @param lucene lucene sail
+	 * @return analyzer
+	 */
+	private static Analyzer createAnalyzer(LuceneSail lucene) {
+		String cl = lucene.getParameter(LuceneSail.ANALYZER_CLASS_KEY);
+		if (cl == null) {
+			return new StandardAnalyzer();
+		}
+		try {
+			return (Analyzer) Class.forName(cl).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException roe) {
+			throw new WebApplicationException("Could not create analyzer", roe);
+		}
+	}
+
+	/**
+	 * Delete directory and its files
+	 * 
+	 * @param dir directory
+	 * @throws IOException 
+	 */
+	private static void deleteDir(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path f: files) {
+				Files.delete(f);
+			}
+		}
+		Files.delete(dir);
+	}
+}
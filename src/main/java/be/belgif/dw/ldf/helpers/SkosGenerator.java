@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import java.util.Random;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.DCTERMS;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.rio.RDFHandler;
+
+/**
+ * Deterministic generator of synthetic SKOS vocabularies, for load and 
+ * scaling tests.
+ * 
+ * Each vocabulary is a concept scheme in its own named graph.
+ * Concepts form a hierarchy of limited depth, and have preferred and 
+ * alternative labels in several languages.
+ * Words in labels, subjects and related concepts follow a Zipf distribution,
+ * so some objects are very common and others rare, like in real vocabularies.
+ * 
+ * The same seed and settings always generate the same statements, and 
+ * the labels of a concept can be retrieved without generating the others.
+ * 
+ * @author Bart.Hanssens
+ */
+public class SkosGenerator {
+	private final static ValueFactory F = SimpleValueFactory.getInstance();
+	private final static String[] SYLLABLES = { 
+		"ba", "ce", "di", "fo", "gu", "ha", "je", "ki", "lo", "mu", "na", "pe", 
+		"qui", "ro", "su", "ta", "ve", "wi", "xo", "zu", "an", "el", "in", "or" };
+	private final static int WORDS = 20000;
+	private final static int TOPICS = 1000;
+
+	private final String prefix;
+	private final long seed;
+	private int concepts = 1000;
+	private int graphs = 1;
+	private String[] languages = { "en" };
+	private int altLabels = 1;
+	private int depth = 4;
+	private double skew = 1.0;
+
+	/**
+	 * Set number of concepts per vocabulary
+	 * 
+	 * @param concepts number of concepts
+	 */
+	public void setConcepts(int concepts) {
+		this.concepts = concepts;
+	}
+
+	/**
+	 * Set number of vocabularies, each in its own named graph
+	 * 
+	 * @param graphs number of graphs
+	 */
+	public void setGraphs(int graphs) {
+		this.graphs = graphs;
+	}
+
+	/**
+	 * Set languages of the labels
+	 * 
+	 * @param languages language codes
+	 */
+	public void setLanguages(String... languages) {
+		this.languages = languages;
+	}
+
+	/**
+	 * Set number of alternative labels per language
+	 * 
+	 * @param altLabels number of labels
+	 */
+	public void setAltLabels(int altLabels) {
+		this.altLabels = altLabels;
+	}
+
+	/**
+	 * Set maximum depth of the broader / narrower hierarchy
+	 * 
+	 * @param depth depth, 1 for a flat list
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * Set skew of the Zipf distributions, 0 for a uniform distribution
+	 * 
+	 * @param skew exponent
+	 */
+	public void setSkew(double skew) {
+		this.skew = skew;
+	}
+
+	/**
+	 * Get vocabulary name
+	 * 
+	 * @param g graph number
+	 * @return name
+	 */
+	public String getVocab(int g) {
+		return "gen" + g;
+	}
+
+	/**
+	 * Get named graph of a vocabulary
+	 * 
+	 * @param g graph number
+	 * @return graph IRI
+	 */
+	public IRI getGraph(int g) {
+		return F.createIRI(prefix + "graph" + getVocab(g));
+	}
+
+	/**
+	 * Get concept scheme
+	 * 
+	 * @param g graph number
+	 * @return scheme IRI
+	 */
+	public IRI getScheme(int g) {
+		return F.createIRI(prefix + "id/" + getVocab(g));
+	}
+
+	/**
+	 * Get concept
+	 * 
+	 * @param g graph number
+	 * @param i concept number
+	 * @return concept IRI
+	 */
+	public IRI getConcept(int g, int i) {
+		return F.createIRI(prefix + "id/" + getVocab(g) + "/" + i);
+	}
+
+	/**
+	 * Get random generator for a concept, independent of other concepts
+	 * 
+	 * @param g graph number
+	 * @param i concept number
+	 * @param n number of the label or property
+	 * @return random generator
+	 */
+	private Random random(int g, int i, int n) {
+		return new Random(seed * 1000003L + ((long) g << 40) + ((long) i << 8) + n);
+	}
+
+	/**
+	 * Get a Zipf distributed rank between 0 and n - 1.
+	 * Uses the continuous approximation, so no tables are needed.
+	 * 
+	 * @param r random generator
+	 * @param n number of items
+	 * @return rank
+	 */
+	private int zipf(Random r, int n) {
+		double u = r.nextDouble();
+		double x;
+		if (skew == 0) {
+			x = u * n;
+		} else if (Math.abs(skew - 1.0) < 1e-9) {
+			x = Math.exp(u * Math.log(n + 1)) - 1;
+		} else {
+			double a = 1 - skew;
+			x = Math.pow((Math.pow(n + 1, a) - 1) * u + 1, 1 / a) - 1;
+		}
+		return Math.min(n - 1, (int) x);
+	}
+
+	/**
+	 * Get word, the same number always gives the same word
+	 * 
+	 * @param n word number
+	 * @return word
+	 */
+	private String word(int n) {
+		StringBuilder buf = new StringBuilder();
+		int w = n + SYLLABLES.length;
+		while (w > 0) {
+			buf.append(SYLLABLES[w % SYLLABLES.length]);
+			w /= SYLLABLES.length;
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Get label of 1 to 3 words, with a language specific word order
+	 * 
+	 * @param r random generator
+	 * @param lang language code
+	 * @return label
+	 */
+	private String label(Random r, int lang) {
+		int n = 1 + r.nextInt(3);
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				buf.append(' ');
+			}
+			String w = word((zipf(r, WORDS) + lang * 7919) % WORDS);
+			buf.append((i == 0) ? Character.toUpperCase(w.charAt(0)) + w.substring(1) : w);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Get preferred label of a concept
+	 * 
+	 * @param g graph number
+	 * @param i concept number
+	 * @param lang language number
+	 * @return label
+	 */
+	public Literal getPrefLabel(int g, int i, int lang) {
+		return F.createLiteral(label(random(g, i, lang), lang) + " " + i, languages[lang]);
+	}
+
+	/**
+	 * Get broader concept
+	 * 
+	 * @param i concept number
+	 * @return concept number or -1 for top concepts
+	 */
+	private int broader(int i) {
+		if (depth <= 1) {
+			return -1;
+		}
+		// branching factor, so that all concepts fit in a tree of this depth
+		int b = Math.max(2, (int) Math.ceil(Math.pow(concepts, 1.0 / (depth - 1))));
+		int tops = Math.max(1, concepts / (int) Math.min(Integer.MAX_VALUE, Math.pow(b, depth - 1)));
+		return (i < tops) ? -1 : (i - tops) / b;
+	}
+
+	/**
+	 * Generate one concept
+	 * 
+	 * @param h RDF handler
+	 * @param g graph number
+	 * @param i concept number
+	 * @param ctx named graph or null
+	 * @return number of statements
+	 */
+	private long concept(RDFHandler h, int g, int i, Resource ctx) {
+		long n = 0;
+		IRI subj = getConcept(g, i);
+		n += add(h, subj, RDF.TYPE, SKOS.CONCEPT, ctx);
+		n += add(h, subj, SKOS.IN_SCHEME, getScheme(g), ctx);
+		n += add(h, subj, SKOS.NOTATION, F.createLiteral(getVocab(g) + "-" + i), ctx);
+
+		for (int l = 0; l < languages.length; l++) {
+			n += add(h, subj, SKOS.PREF_LABEL, getPrefLabel(g, i, l), ctx);
+			Random r = random(g, i, 100 + l);
+			for (int a = 0; a < altLabels; a++) {
+				n += add(h, subj, SKOS.ALT_LABEL, F.createLiteral(label(r, l), languages[l]), ctx);
+			}
+			// only some concepts have a definition
+			if (r.nextInt(10) < 3) {
+				n += add(h, subj, SKOS.DEFINITION, 
+						F.createLiteral(label(r, l) + " " + label(r, l), languages[l]), ctx);
+			}
+		}
+
+		int parent = broader(i);
+		if (parent < 0) {
+			n += add(h, subj, SKOS.TOP_CONCEPT_OF, getScheme(g), ctx);
+			n += add(h, getScheme(g), SKOS.HAS_TOP_CONCEPT, subj, ctx);
+		} else {
+			n += add(h, subj, SKOS.BROADER, getConcept(g, parent), ctx);
+			n += add(h, getConcept(g, parent), SKOS.NARROWER, subj, ctx);
+		}
+
+		// skewed objects: popular subjects and related concepts
+		Random r = random(g, i, 1000);
+		n += add(h, subj, DCTERMS.SUBJECT, F.createIRI(prefix + "id/topic/" + zipf(r, TOPICS)), ctx);
+		int related = zipf(r, 8);
+		for (int k = 0; k < related && concepts > 1; k++) {
+			int other = zipf(r, concepts);
+			if (other != i) {
+				n += add(h, subj, SKOS.RELATED, getConcept(g, other), ctx);
+			}
+		}
+		// some concepts match a concept in another vocabulary
+		if (graphs > 1 && r.nextInt(10) == 0) {
+			int og = (g + 1 + r.nextInt(graphs - 1)) % graphs;
+			n += add(h, subj, SKOS.EXACT_MATCH, getConcept(og, r.nextInt(concepts)), ctx);
+		}
+		return n;
+	}
+
+	/**
+	 * Add statement to handler
+	 * 
+	 * @param h RDF handler
+	 * @param s subject
+	 * @param p predicate
+	 * @param o object
+	 * @param ctx named graph or null
+	 * @return 1
+	 */
+	private static int add(RDFHandler h, Resource s, IRI p, Value o, Resource ctx) {
+		h.handleStatement((ctx != null) ? F.createStatement(s, p, o, ctx) 
+										: F.createStatement(s, p, o));
+		return 1;
+	}
+
+	/**
+	 * Generate one vocabulary, without calling startRDF / endRDF
+	 * 
+	 * @param h RDF handler
+	 * @param g graph number
+	 * @param quads true to add the named graph to the statements
+	 * @return number of statements
+	 */
+	public long generate(RDFHandler h, int g, boolean quads) {
+		Resource ctx = quads ? getGraph(g) : null;
+		long n = add(h, getScheme(g), RDF.TYPE, SKOS.CONCEPT_SCHEME, ctx);
+		n += add(h, getScheme(g), DCTERMS.TITLE, F.createLiteral("Generated " + g), ctx);
+		for (int i = 0; i < concepts; i++) {
+			n += concept(h, g, i, ctx);
+		}
+		return n;
+	}
+
+	/**
+	 * Generate all vocabularies
+	 * 
+	 * @param h RDF handler
+	 * @param quads true to add the named graph to the statements
+	 * @return number of statements
+	 */
+	public long generate(RDFHandler h, boolean quads) {
+		long n = 0;
+		h.startRDF();
+		for (int g = 0; g < graphs; g++) {
+			n += generate(h, g, quads);
+		}
+		h.endRDF();
+		return n;
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param prefix base of the IRIs and graph names
+	 * @param seed random seed
+	 */
+	public SkosGenerator(String prefix, long seed) {
+		this.prefix = prefix;
+		this.seed = seed;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recorder of slow fragment requests, keeping the most recent ones in memory
+ * and writing a sample to a dedicated log ("be.belgif.dw.ldf.slow").
+ * 
+ * @author Bart.Hanssens
+ */
+public class SlowFragments {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger("be.belgif.dw.ldf.slow");
+
+	private static long threshold = 500_000_000L;
+	private static int size = 100;
+	private static double sampleRate = 0.1;
+	// index used for each combination of bound s, p, o and c
+	private static String[] indexes = plans("spoc,posc,cspo,cpos");
+
+	private final static Deque<FragmentTrace> RECENT = new ArrayDeque<>();
+
+	/**
+	 * Determine the triple index the native store will use for each combination
+	 * of bound subject, predicate, object and context.
+	 * Like the store, the index with the longest prefix of bound fields is chosen.
+	 * 
+	 * @param spec comma-separated list of triple indexes
+	 * @return array of descriptions
+	 */
+	private static String[] plans(String spec) {
+		String[] specs = spec.replaceAll("\\s", "").split(",");
+		String[] arr = new String[16];
+		for (int i = 0; i < arr.length; i++) {
+			String bound = (((i & 8) != 0) ? "s" : "") + (((i & 4) != 0) ? "p" : "")
+							+ (((i & 2) != 0) ? "o" : "") + (((i & 1) != 0) ? "c" : "");
+			String best = specs[0];
+			int score = -1;
+			for (String idx: specs) {
+				int n = 0;
+				while (n < idx.length() && bound.indexOf(idx.charAt(n)) >= 0) {
+					n++;
+				}
+				if (n > score) {
+					best = idx;
+					score = n;
+				}
+			}
+			arr[i] = "index " + best + ((score == 0) ? " full scan" : " prefix " + score);
+		}
+		return arr;
+	}
+
+	/**
+	 * Configure the recorder
+	 * 
+	 * @param thresholdMs minimum total time in milliseconds
+	 * @param size number of recent slow requests to keep
+	 * @param sampleRate fraction of slow requests to log, between 0 and 1
+	 * @param tripleIndexes comma-separated list of triple indexes of the store
+	 */
+	public static void configure(long thresholdMs, int size, double sampleRate, 
+									String tripleIndexes) {
+		SlowFragments.threshold = thresholdMs * 1_000_000L;
+		SlowFragments.size = size;
+		SlowFragments.sampleRate = sampleRate;
+		SlowFragments.indexes = plans(tripleIndexes);
+		clear();
+	}
+
+	/**
+	 * Get description of the index used for a triple pattern
+	 * 
+	 * @param s true if subject is bound
+	 * @param p true if predicate is bound
+	 * @param o true if object is bound
+	 * @param c true if context / graph is bound
+	 * @return description
+	 */
+	public static String getIndex(boolean s, boolean p, boolean o, boolean c) {
+		return indexes[(s ? 8 : 0) + (p ? 4 : 0) + (o ? 2 : 0) + (c ? 1 : 0)];
+	}
+
+	/**
+	 * Record request if it was slow
+	 * 
+	 * @param trace request details
+	 */
+	public static void record(FragmentTrace trace) {
+		if (trace.getTotal() < threshold) {
+			return;
+		}
+		synchronized (RECENT) {
+			if (size > 0) {
+				if (RECENT.size() >= size) {
+					RECENT.removeFirst();
+				}
+				RECENT.addLast(trace);
+			}
+		}
+		if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+			LOG.info("{}", trace);
+		}
+	}
+
+	/**
+	 * Get recent slow requests, slowest first
+	 * 
+	 * @param max maximum number of requests
+	 * @return list of requests
+	 */
+	public static List<FragmentTrace> getSlowest(int max) {
+		List<FragmentTrace> l;
+		synchronized (RECENT) {
+			l = new ArrayList<>(RECENT);
+		}
+		l.sort(Comparator.comparingLong(FragmentTrace::getTotal).reversed());
+		return (l.size() > max) ? l.subList(0, max) : l;
+	}
+
+	/**
+	 * Remove all recorded requests
+	 */
+	public static void clear() {
+		synchronized (RECENT) {
+			RECENT.clear();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.helpers;
+
+import be.belgif.dw.ldf.query.FragmentIndex;
+import be.belgif.dw.ldf.query.LabelIndex;
+import be.belgif.dw.ldf.query.TripleCounter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Version of the data in the store, and in each named graph.
+ * 
+ * Data only changes via the tasks and query helpers, which must call 
+ * {@link #changed(String)} after each committed write.
+ * 
+ * @author Bart.Hanssens
+ */
+public class StoreVersion {
+	// versions restart at 0, so make sure ETags differ from a previous run
+	private final static String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+	private final static AtomicLong VERSION = new AtomicLong();
+	private static volatile long modified = System.currentTimeMillis();
+
+	// version and time of the last change to the whole store
+	private static volatile long allVersion = 0;
+	private static volatile long allModified = modified;
+
+	// version and time of the last change per named graph
+	private final static Map<String, long[]> GRAPHS = new ConcurrentHashMap<>();
+
+	/**
+	 * Register a committed change
+	 * 
+	 * @param graph named graph or null if (possibly) all graphs were changed
+	 */
+	public static void changed(String graph) {
+		changed(graph, true);
+	}
+
+	/**
+	 * Register a committed change, which may be one of a series of commits.
+	 * Derived indexes that are expensive to rebuild are only rebuilt after the last one.
+	 * 
+	 * @param graph named graph or null if (possibly) all graphs were changed
+	 * @param last true if this is the last commit of a series
+	 */
+	public static void changed(String graph, boolean last) {
+		synchronized (GRAPHS) {
+			long version = VERSION.incrementAndGet();
+			long now = System.currentTimeMillis();
+			if (graph == null) {
+				GRAPHS.clear();
+				allVersion = version;
+				allModified = now;
+			} else {
+				GRAPHS.put(graph, new long[] { version, now });
+			}
+			modified = now;
+		}
+		FragmentCache.invalidate(graph);
+		FragmentIndex.invalidate(graph);
+		TripleCounter.invalidate(graph, last);
+		if (last) {
+			LabelIndex.invalidate(graph);
+		}
+	}
+
+	/**
+	 * Get version number
+	 * 
+	 * @param graph named graph or null for the whole store
+	 * @return version number
+	 */
+	public static long getVersion(String graph) {
+		if (graph == null) {
+			return VERSION.get();
+		}
+		long[] v = GRAPHS.get(graph);
+		return (v != null) ? v[0] : allVersion;
+	}
+
+	/**
+	 * Get named graphs changed after a given version
+	 * 
+	 * @param version version number
+	 * @return list of graphs, or null if (possibly) all graphs were changed
+	 */
+	public static List<String> getChangedSince(long version) {
+		synchronized (GRAPHS) {
+			if (allVersion > version) {
+				return null;
+			}
+			List<String> graphs = new ArrayList<>();
+			for (Map.Entry<String, long[]> e: GRAPHS.entrySet()) {
+				if (e.getValue()[0] > version) {
+					graphs.add(e.getKey());
+				}
+			}
+			return graphs;
+		}
+	}
+
+	/**
+	 * Get time of last modification
+	 * 
+	 * @param graph named graph or null for the whole store
+	 * @return date
+	 */
+	public static Date getLastModified(String graph) {
+		if (graph == null) {
+			return new Date(modified);
+		}
+		long[] v = GRAPHS.get(graph);
+		return new Date((v != null) ? v[1] : allModified);
+	}
+
+	/**
+	 * Get strong entity tag, which is different for each serialization format
+	 * and content encoding
+	 * 
+	 * @param graph named graph or null for the whole store
+	 * @param mt media type
+	 * @param enc content encoding or null
+	 * @return entity tag
+	 */
+	public static EntityTag getETag(String graph, MediaType mt, String enc) {
+		return getETag(getVersion(graph), mt, enc);
+	}
+
+	/**
+	 * Get strong entity tag for a given version
+	 * 
+	 * @param version version number
+	 * @param mt media type
+	 * @param enc content encoding or null
+	 * @return entity tag
+	 */
+	public static EntityTag getETag(long version, MediaType mt, String enc) {
+		String tag = EPOCH + "-" + version + "-" + mt.getSubtype();
+		return new EntityTag((enc != null) ? tag + "-" + enc : tag);
+	}
+}
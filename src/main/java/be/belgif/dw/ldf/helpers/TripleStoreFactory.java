@@ -26,8 +26,19 @@
 package be.belgif.dw.ldf.helpers;
 
 import be.belgif.dw.ldf.health.RdfStoreHealthCheck;
+import be.belgif.dw.ldf.query.CursorCache;
+import be.belgif.dw.ldf.query.FragmentIndex;
+import be.belgif.dw.ldf.query.IndexSeek;
+import be.belgif.dw.ldf.query.LabelIndex;
+import be.belgif.dw.ldf.query.QueryHelperFTS;
+import be.belgif.dw.ldf.query.QueryHelperLDF;
+import be.belgif.dw.ldf.query.TripleCounter;
+import be.belgif.dw.ldf.tasks.FragmentIndexTask;
+import be.belgif.dw.ldf.tasks.Jobs;
+import be.belgif.dw.ldf.tasks.JobsTask;
 import be.belgif.dw.ldf.tasks.LuceneReindexTask;
 import be.belgif.dw.ldf.tasks.RDFExportTask;
+import be.belgif.dw.ldf.tasks.RDFGenerateTask;
 import be.belgif.dw.ldf.tasks.RDFImportTask;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -36,6 +47,19 @@ import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Environment;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
@@ -44,12 +68,17 @@ import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Factory for embedded triple store
  * 
  * @author Bart.Hanssens
  */
 public class TripleStoreFactory {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(TripleStoreFactory.class);
+
 	@NotEmpty
 	private String rdfDir;
 
@@ -65,6 +94,55 @@ public class TripleStoreFactory {
 	@NotEmpty
 	private String sitePrefix;
 
+	// optional, read-only snapshots of named graphs
+	private String snapshotDir;
+
+	// comma-separated list of permutations of s, p, o and c
+	// indexes starting with c are used for fragments of one vocabulary
+	@Pattern(regexp = "\\s*[spoc]{4}(\\s*,\\s*[spoc]{4})*\\s*")
+	private String tripleIndexes = "spoc,posc,cspo,cpos";
+
+	private boolean forceSync = false;
+
+	// null: use the default of the native store
+	@Min(1)
+	private Integer valueCacheSize;
+
+	@Min(1)
+	private Integer valueIdCacheSize;
+
+	@Min(1)
+	private Integer namespaceCacheSize;
+
+	@Min(1)
+	private Integer namespaceIdCacheSize;
+
+	@NotNull
+	private TripleCounter.Mode countMode = TripleCounter.Mode.EXACT;
+
+	@Min(0)
+	private int countThreshold = 10000;
+
+	private boolean directEvaluation = true;
+
+	@Min(1)
+	private int ftsMinLength = 3;
+
+	@Min(1)
+	private int importThreads = Runtime.getRuntime().availableProcessors();
+
+	@Min(1)
+	private int importBatch = 100000;
+
+	@Min(0)
+	private double reindexRate = 0;
+
+	@Min(1)
+	private int jobThreads = 2;
+
+	@Min(1)
+	private int jobQueue = 16;
+
 	@JsonProperty
 	public String getRdfDir() {
 		return rdfDir;
@@ -115,6 +193,202 @@ public class TripleStoreFactory {
 		this.sitePrefix = sitePrefix.endsWith("/") ? sitePrefix : sitePrefix + "/";
 	}
 
+	@JsonProperty
+	public String getSnapshotDir() {
+		return snapshotDir;
+	}
+
+	@JsonProperty
+	public void setSnapshotDir(String snapshotDir) {
+		this.snapshotDir = snapshotDir;
+	}
+
+	@JsonProperty
+	public TripleCounter.Mode getCountMode() {
+		return countMode;
+	}
+
+	@JsonProperty
+	public void setCountMode(TripleCounter.Mode countMode) {
+		this.countMode = countMode;
+	}
+
+	@JsonProperty
+	public int getCountThreshold() {
+		return countThreshold;
+	}
+
+	@JsonProperty
+	public void setCountThreshold(int countThreshold) {
+		this.countThreshold = countThreshold;
+	}
+
+	@JsonProperty
+	public boolean getDirectEvaluation() {
+		return directEvaluation;
+	}
+
+	@JsonProperty
+	public void setDirectEvaluation(boolean directEvaluation) {
+		this.directEvaluation = directEvaluation;
+	}
+
+	@JsonProperty
+	public int getImportThreads() {
+		return importThreads;
+	}
+
+	@JsonProperty
+	public void setImportThreads(int importThreads) {
+		this.importThreads = importThreads;
+	}
+
+	@JsonProperty
+	public String getTripleIndexes() {
+		return tripleIndexes;
+	}
+
+	@JsonProperty
+	public void setTripleIndexes(String tripleIndexes) {
+		this.tripleIndexes = tripleIndexes;
+	}
+
+	@JsonProperty
+	public boolean getForceSync() {
+		return forceSync;
+	}
+
+	@JsonProperty
+	public void setForceSync(boolean forceSync) {
+		this.forceSync = forceSync;
+	}
+
+	@JsonProperty
+	public Integer getValueCacheSize() {
+		return valueCacheSize;
+	}
+
+	@JsonProperty
+	public void setValueCacheSize(Integer valueCacheSize) {
+		this.valueCacheSize = valueCacheSize;
+	}
+
+	@JsonProperty
+	public Integer getValueIdCacheSize() {
+		return valueIdCacheSize;
+	}
+
+	@JsonProperty
+	public void setValueIdCacheSize(Integer valueIdCacheSize) {
+		this.valueIdCacheSize = valueIdCacheSize;
+	}
+
+	@JsonProperty
+	public Integer getNamespaceCacheSize() {
+		return namespaceCacheSize;
+	}
+
+	@JsonProperty
+	public void setNamespaceCacheSize(Integer namespaceCacheSize) {
+		this.namespaceCacheSize = namespaceCacheSize;
+	}
+
+	@JsonProperty
+	public Integer getNamespaceIdCacheSize() {
+		return namespaceIdCacheSize;
+	}
+
+	@JsonProperty
+	public void setNamespaceIdCacheSize(Integer namespaceIdCacheSize) {
+		this.namespaceIdCacheSize = namespaceIdCacheSize;
+	}
+
+	@JsonProperty
+	public int getFtsMinLength() {
+		return ftsMinLength;
+	}
+
+	@JsonProperty
+	public void setFtsMinLength(int ftsMinLength) {
+		this.ftsMinLength = ftsMinLength;
+	}
+
+	@JsonProperty
+	public int getImportBatch() {
+		return importBatch;
+	}
+
+	@JsonProperty
+	public void setImportBatch(int importBatch) {
+		this.importBatch = importBatch;
+	}
+
+	@JsonProperty
+	public double getReindexRate() {
+		return reindexRate;
+	}
+
+	@JsonProperty
+	public void setReindexRate(double reindexRate) {
+		this.reindexRate = reindexRate;
+	}
+
+	@JsonProperty
+	public int getJobThreads() {
+		return jobThreads;
+	}
+
+	@JsonProperty
+	public void setJobThreads(int jobThreads) {
+		this.jobThreads = jobThreads;
+	}
+
+	@JsonProperty
+	public int getJobQueue() {
+		return jobQueue;
+	}
+
+	@JsonProperty
+	public void setJobQueue(int jobQueue) {
+		this.jobQueue = jobQueue;
+	}
+
+	/**
+	 * Get set of triple indexes from a comma-separated list
+	 * 
+	 * @param indexes list of indexes
+	 * @return set of indexes
+	 */
+	private static Set<String> asSet(String indexes) {
+		return new HashSet<>(Arrays.asList(indexes.trim().split("\\s*,\\s*")));
+	}
+
+	/**
+	 * Warn when the triple indexes of an existing store are changed,
+	 * since the native store will rebuild them when it is started.
+	 * 
+	 * @param dir data directory of the store
+	 * @param indexes new list of indexes
+	 */
+	private static void checkIndexes(String dir, String indexes) {
+		Path p = Paths.get(dir, "triples.prop");
+		if (!Files.exists(p)) {
+			return;
+		}
+		Properties props = new Properties();
+		try (InputStream is = Files.newInputStream(p)) {
+			props.load(is);
+		} catch (IOException ioe) {
+			LOG.warn("Could not read current triple indexes", ioe);
+			return;
+		}
+		String current = props.getProperty("triple-indexes");
+		if (current != null && !asSet(current).equals(asSet(indexes))) {
+			LOG.warn("Changing triple indexes from {} to {}, this may take a while", 
+					current, indexes);
+		}
+	}
+
 	/**
 	 * Configure a triple store repository
 	 *
@@ -123,14 +397,39 @@ public class TripleStoreFactory {
 	 */
 	public Repository build(Environment env) {
 		// native disk-based store
-		NativeStore store = new NativeStore(new File(getRdfDir()));
+		// indexes are added or removed by the store itself when it is initialized
+		checkIndexes(getRdfDir(), getTripleIndexes());
+		NativeStore store = new NativeStore(new File(getRdfDir()), getTripleIndexes().trim());
+		store.setForceSync(getForceSync());
+		if (getValueCacheSize() != null) {
+			store.setValueCacheSize(getValueCacheSize());
+		}
+		if (getValueIdCacheSize() != null) {
+			store.setValueIDCacheSize(getValueIdCacheSize());
+		}
+		if (getNamespaceCacheSize() != null) {
+			store.setNamespaceCacheSize(getNamespaceCacheSize());
+		}
+		if (getNamespaceIdCacheSize() != null) {
+			store.setNamespaceIDCacheSize(getNamespaceIdCacheSize());
+		}
+		// parked cursor scans are no longer valid after a change,
+		// cached counts are updated per graph (see StoreVersion)
+		store.addSailChangedListener(e -> CursorCache.clear());
+
+		// continue paging in the triple indexes
+		IndexSeek.configure(store);
 
 		// full text search
 		LuceneSail fts = new LuceneSail();
-		fts.setParameter(LuceneSail.LUCENE_DIR_KEY, getLuceneDir());
+		fts.setParameter(LuceneSail.LUCENE_DIR_KEY, SearchIndexer.getActiveDir(getLuceneDir()));
 		fts.setBaseSail(store);
 
 		Repository repo = new SailRepository(fts);
+		TripleCounter.configure(repo, getCountMode(), getCountThreshold());
+		QueryHelperLDF.setDirect(getDirectEvaluation());
+		QueryHelperFTS.setMinLength(getFtsMinLength());
+		LabelIndex.configure(repo);
 		
 		env.lifecycle().manage(new Managed() {
 			@Override
@@ -139,15 +438,30 @@ public class TripleStoreFactory {
 			}
 
 			@Override
-			public void stop() {
+			public void stop() throws Exception {
+				Jobs.shutdown();
+				// parked scans keep connections open
+				CursorCache.shutdown();
 				repo.shutDown();
 			}
 		});
 		
-		// Tasks
-		env.admin().addTask(new LuceneReindexTask(repo));
-		env.admin().addTask(new RDFImportTask(repo, getImportDir()));
+		// graphs not yet added to the full text index
+		SearchIndexer.configure(Paths.get(getRdfDir(), "lucene-dirty.txt"));
+
+		// compiled snapshots of named graphs
+		FragmentIndex.configure((getSnapshotDir() != null) ? Paths.get(getSnapshotDir()) : null);
+
+		// Tasks, running as background jobs
+		Jobs.configure(getJobThreads(), getJobQueue());
+		env.admin().addTask(new JobsTask());
+		env.admin().addTask(new LuceneReindexTask(repo, getLuceneDir(), getReindexRate()));
+		env.admin().addTask(new RDFImportTask(repo, getImportDir(), 
+											getImportThreads(), getImportBatch()));
 		env.admin().addTask(new RDFExportTask(repo, getExportDir()));
+		env.admin().addTask(new RDFGenerateTask(repo, getSitePrefix(), getImportDir(), 
+											getImportBatch()));
+		env.admin().addTask(new FragmentIndexTask(repo));
 
 		// Monitoring
 		RdfStoreHealthCheck check = new RdfStoreHealthCheck(repo);
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Continuation tokens and suspended triple pattern scans, used for cursor-based paging.
+ * 
+ * The continuation token contains the offset and the last statement sent,
+ * so the next page can be read from the index starting at that statement (see {@link IndexSeek}).
+ * 
+ * When the indexes can't be used, the open store iterator is parked after each page 
+ * and picked up again by the next request. 
+ * Restoring a position without a parked scan means skipping all previous statements again,
+ * and may be inaccurate when the store changed.
+ * Every parked scan keeps a connection open, so only a few scans are kept 
+ * for a short time, and idle scans are closed in the background.
+ *
+ * @author Bart.Hanssens
+ */
+public class CursorCache {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(CursorCache.class);
+
+	private final static ValueFactory F = SimpleValueFactory.getInstance();
+
+	private static int maxScans = 32;
+	private static long maxIdle = 10 * 1000L;
+
+	// access order, least recently used scan first
+	private final static Map<String, Scan> SCANS = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final static ScheduledExecutorService EXPIRER = 
+		Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "cursor-expire");
+			t.setDaemon(true);
+			return t;
+		});
+	private static ScheduledFuture<?> expiring = null;
+
+	/**
+	 * Open scan over a triple pattern, with its own connection
+	 */
+	public static class Scan implements AutoCloseable {
+		private final RepositoryConnection conn;
+		private final RepositoryResult<Statement> res;
+		private final boolean named;
+		private Statement ahead;
+		private long offset;
+		private long parked;
+
+		/**
+		 * Get the number of statements read so far
+		 * 
+		 * @return offset
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Check if there are more statements
+		 * 
+		 * @return true if more statements are available
+		 */
+		public boolean hasNext() {
+			while (ahead == null && res.hasNext()) {
+				Statement st = res.next();
+				if (!named || st.getContext() != null) {
+					ahead = st;
+				}
+			}
+			return ahead != null;
+		}
+
+		/**
+		 * Get next statement
+		 * 
+		 * @return statement
+		 */
+		public Statement next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Statement st = ahead;
+			ahead = null;
+			offset++;
+			return st;
+		}
+
+		@Override
+		public void close() {
+			try {
+				res.close();
+			} catch (RepositoryException e) {
+				LOG.warn("Could not close scan", e);
+			} finally {
+				conn.close();
+			}
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param conn repository connection, closed together with the scan
+		 * @param res statement iterator
+		 * @param named true to skip statements in the default graph
+		 */
+		public Scan(RepositoryConnection conn, RepositoryResult<Statement> res, boolean named) {
+			this.conn = conn;
+			this.res = res;
+			this.named = named;
+		}
+	}
+
+	/**
+	 * Configure the number of parked scans
+	 * 
+	 * @param maxScans maximum number of parked scans, 0 to disable parking
+	 * @param maxIdle maximum time (in milliseconds) a scan is kept
+	 */
+	public static synchronized void configure(int maxScans, long maxIdle) {
+		CursorCache.maxScans = maxScans;
+		CursorCache.maxIdle = maxIdle;
+		clear();
+
+		if (expiring != null) {
+			expiring.cancel(false);
+			expiring = null;
+		}
+		if (maxScans > 0) {
+			long every = Math.max(maxIdle / 2, 100);
+			expiring = EXPIRER.scheduleWithFixedDelay(() -> {
+				synchronized (CursorCache.class) {
+					expire();
+				}
+			}, every, every, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop parking scans and close all parked scans, e.g. when the application stops
+	 */
+	public static synchronized void shutdown() {
+		if (expiring != null) {
+			expiring.cancel(false);
+			expiring = null;
+		}
+		maxScans = 0;
+		clear();
+	}
+
+	/**
+	 * Create opaque continuation token
+	 * 
+	 * @param offset number of statements already sent
+	 * @param last last statement sent
+	 * @return token
+	 */
+	public static String encode(long offset, Statement last) {
+		String str = offset + "\n" 
+					+ NTriplesUtil.toNTriplesString(last.getSubject()) + "\n"
+					+ NTriplesUtil.toNTriplesString(last.getPredicate()) + "\n"
+					+ NTriplesUtil.toNTriplesString(last.getObject()) + "\n"
+					+ ((last.getContext() != null) 
+						? NTriplesUtil.toNTriplesString(last.getContext()) : "");
+		return Base64.getUrlEncoder().withoutPadding()
+								.encodeToString(str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Split continuation token into offset and subject, predicate, object, context
+	 * 
+	 * @param token continuation token
+	 * @return array of 5 strings, context is empty for the default graph
+	 * @throws IllegalArgumentException if token is malformed
+	 */
+	private static String[] split(String token) {
+		String str = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+		String[] parts = str.split("\n", -1);
+		if (parts.length != 5) {
+			throw new IllegalArgumentException("Malformed cursor");
+		}
+		return parts;
+	}
+
+	/**
+	 * Get offset from continuation token
+	 * 
+	 * @param token continuation token
+	 * @return offset
+	 * @throws IllegalArgumentException if token is malformed
+	 */
+	public static long getOffset(String token) {
+		long offset = Long.valueOf(split(token)[0]);
+		if (offset < 0) {
+			throw new IllegalArgumentException("Negative offset");
+		}
+		return offset;
+	}
+
+	/**
+	 * Get last statement sent from continuation token
+	 * 
+	 * @param token continuation token
+	 * @return statement
+	 * @throws IllegalArgumentException if token is malformed
+	 */
+	public static Statement getLast(String token) {
+		String[] parts = split(token);
+		Value s = NTriplesUtil.parseValue(parts[1], F);
+		Value p = NTriplesUtil.parseValue(parts[2], F);
+		Value o = NTriplesUtil.parseValue(parts[3], F);
+		Value c = parts[4].isEmpty() ? null : NTriplesUtil.parseValue(parts[4], F);
+		if (!(s instanceof Resource) || !(p instanceof IRI) 
+				|| (c != null && !(c instanceof Resource))) {
+			throw new IllegalArgumentException("Malformed cursor");
+		}
+		return F.createStatement((Resource) s, (IRI) p, o, (Resource) c);
+	}
+
+	/**
+	 * Take a parked scan out of the cache
+	 * 
+	 * @param key pattern and token
+	 * @return scan or null when not found
+	 */
+	public static synchronized Scan take(String key) {
+		expire();
+		return SCANS.remove(key);
+	}
+
+	/**
+	 * Park a scan until the next page is requested
+	 * 
+	 * @param key pattern and token
+	 * @param scan open scan
+	 */
+	public static synchronized void park(String key, Scan scan) {
+		expire();
+		if (maxScans <= 0) {
+			scan.close();
+			return;
+		}
+		if (SCANS.size() >= maxScans) {
+			Iterator<Scan> i = SCANS.values().iterator();
+			i.next().close();
+			i.remove();
+		}
+		scan.parked = System.currentTimeMillis();
+		Scan old = SCANS.put(key, scan);
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * Close scans that have not been used for a while
+	 */
+	private static void expire() {
+		long limit = System.currentTimeMillis() - maxIdle;
+		Iterator<Scan> i = SCANS.values().iterator();
+		while (i.hasNext()) {
+			Scan scan = i.next();
+			if (scan.parked < limit) {
+				scan.close();
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Close all parked scans, e.g. when the contents of the store changed
+	 */
+	public static synchronized void clear() {
+		if (! SCANS.isEmpty()) {
+			LOG.debug("Closing {} parked scans", SCANS.size());
+		}
+		SCANS.values().forEach(Scan::close);
+		SCANS.clear();
+	}
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.query;
+
+import be.belgif.dw.ldf.helpers.StoreVersion;
+import be.belgif.dw.ldf.tasks.Job;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only, memory-mapped snapshots of named graphs, for serving triple 
+ * patterns without going through the B-trees of the native store.
+ * 
+ * A snapshot contains a sorted dictionary of terms and the triples, 
+ * as term numbers, sorted in SPO, POS and OSP order.
+ * Every triple pattern is a range in one of these orderings, so the count
+ * is exact and any page can be found using a binary search.
+ * 
+ * Snapshots are compiled after an import, and removed when the graph changes.
+ * Changes made while the server was down cannot be detected, so snapshots 
+ * are removed on startup and have to be compiled again.
+ * 
+ * @author Bart.Hanssens
+ */
+public class FragmentIndex {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(FragmentIndex.class);
+
+	private final static ValueFactory F = SimpleValueFactory.getInstance();
+
+	private final static long MAGIC = 0x4c44465346524147L; // LDFSFRAG
+	private final static int FORMAT = 1;
+	private final static String EXT = ".frag";
+
+	// ordering of the triple positions (subject 0, predicate 1, object 2)
+	private final static int[][] ORDERS = { { 0, 1, 2 }, { 1, 2, 0 }, { 2, 0, 1 } };
+	private final static int SPO = 0;
+	private final static int POS = 1;
+	private final static int OSP = 2;
+
+	private static Path dir = null;
+	private final static Map<String, Snapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+	// guards adding and removing snapshots
+	private final static Object LOCK = new Object();
+
+	/**
+	 * Compiled named graph
+	 */
+	public static class Snapshot {
+		private final String graph;
+		private final int terms;
+		private final int triples;
+		// start of each term in the term bytes, plus end of last term
+		private final IntBuffer offsets;
+		private final ByteBuffer bytes;
+		private final IntBuffer[] orders = new IntBuffer[3];
+
+		/**
+		 * Get number of triples
+		 * 
+		 * @return number of triples
+		 */
+		public int size() {
+			return triples;
+		}
+
+		/**
+		 * Compare term to UTF-8 bytes
+		 * 
+		 * @param id term number
+		 * @param b bytes
+		 * @return negative, zero or positive
+		 */
+		private int compare(int id, byte[] b) {
+			int start = offsets.get(id);
+			int len = offsets.get(id + 1) - start;
+			int n = Math.min(len, b.length);
+			for (int i = 0; i < n; i++) {
+				int c = (bytes.get(start + i) & 0xff) - (b[i] & 0xff);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return len - b.length;
+		}
+
+		/**
+		 * Get number of a term
+		 * 
+		 * @param v term
+		 * @return number or -1 if not found
+		 */
+		private int lookup(Value v) {
+			byte[] b = encode(v).getBytes(StandardCharsets.UTF_8);
+			int lo = 0;
+			int hi = terms - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int c = compare(mid, b);
+				if (c < 0) {
+					lo = mid + 1;
+				} else if (c > 0) {
+					hi = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Get term
+		 * 
+		 * @param id term number
+		 * @return term
+		 */
+		private Value term(int id) {
+			int start = offsets.get(id);
+			byte[] b = new byte[offsets.get(id + 1) - start];
+			for (int i = 0; i < b.length; i++) {
+				b[i] = bytes.get(start + i);
+			}
+			return decode(new String(b, StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Compare the first positions of a row with a key
+		 * 
+		 * @param order ordering
+		 * @param row row number
+		 * @param key term numbers
+		 * @param n number of positions to compare
+		 * @return negative, zero or positive
+		 */
+		private int compare(IntBuffer order, int row, int[] key, int n) {
+			for (int i = 0; i < n; i++) {
+				int c = Integer.compare(order.get(row * 3 + i), key[i]);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Find first row not smaller than (or, if upper is set, larger than) the key
+		 * 
+		 * @param order ordering
+		 * @param key term numbers
+		 * @param n number of bound positions
+		 * @param upper true to find the end of the range
+		 * @return row number
+		 */
+		private int bound(IntBuffer order, int[] key, int n, boolean upper) {
+			int lo = 0;
+			int hi = triples;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				int c = compare(order, mid, key, n);
+				if (c < 0 || (upper && c == 0)) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * Get the ordering and the range of rows matching a triple pattern
+		 * 
+		 * @param subj subject or null
+		 * @param pred predicate or null
+		 * @param obj object or null
+		 * @return ordering, first row and end row, or null if nothing matches
+		 */
+		private int[] range(Value subj, Value pred, Value obj) {
+			int[] ids = new int[3];
+			Value[] vals = { subj, pred, obj };
+			for (int i = 0; i < 3; i++) {
+				ids[i] = (vals[i] != null) ? lookup(vals[i]) : Integer.MIN_VALUE;
+				if (vals[i] != null && ids[i] < 0) {
+					return null;
+				}
+			}
+			boolean s = (subj != null);
+			boolean p = (pred != null);
+			boolean o = (obj != null);
+
+			// pick the ordering where the bound positions come first
+			int ord = SPO;
+			if (!s && p) {
+				ord = POS;
+			} else if (o && !(s && p)) {
+				ord = OSP;
+			}
+			int[] key = new int[3];
+			int n = 0;
+			for (int pos: ORDERS[ord]) {
+				if (ids[pos] == Integer.MIN_VALUE) {
+					break;
+				}
+				key[n++] = ids[pos];
+			}
+			IntBuffer order = orders[ord];
+			int start = (n == 0) ? 0 : bound(order, key, n, false);
+			int end = (n == 0) ? triples : bound(order, key, n, true);
+			return new int[] { ord, start, end };
+		}
+
+		/**
+		 * Count the triples matching a pattern
+		 * 
+		 * @param subj subject or null
+		 * @param pred predicate or null
+		 * @param obj object or null
+		 * @return number of triples
+		 */
+		public int count(Value subj, Value pred, Value obj) {
+			int[] r = range(subj, pred, obj);
+			return (r == null) ? 0 : r[2] - r[1];
+		}
+
+		/**
+		 * Get a page of triples matching a pattern
+		 * 
+		 * @param subj subject or null
+		 * @param pred predicate or null
+		 * @param obj object or null
+		 * @param offset number of triples to skip
+		 * @param limit maximum number of triples
+		 * @return list of triples, without named graph
+		 */
+		public List<Statement> get(Value subj, Value pred, Value obj, int offset, int limit) {
+			int[] r = range(subj, pred, obj);
+			if (r == null || offset >= r[2] - r[1]) {
+				return new ArrayList<>();
+			}
+			int[] perm = ORDERS[r[0]];
+			IntBuffer order = orders[r[0]];
+			int start = r[1] + offset;
+			int end = Math.min(r[2], start + limit);
+
+			List<Statement> l = new ArrayList<>(end - start);
+			int[] spo = new int[3];
+			for (int row = start; row < end; row++) {
+				for (int i = 0; i < 3; i++) {
+					spo[perm[i]] = order.get(row * 3 + i);
+				}
+				l.add(F.createStatement((Resource) term(spo[0]), (IRI) term(spo[1]), term(spo[2])));
+			}
+			return l;
+		}
+
+		/**
+		 * Map a compiled file into memory
+		 * 
+		 * @param file file
+		 * @throws IOException 
+		 */
+		private Snapshot(Path file) throws IOException {
+			try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+				ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, 
+										Math.min(ch.size(), 4096));
+				if (head.getLong() != MAGIC || head.getInt() != FORMAT) {
+					throw new IOException("Not a fragment index: " + file);
+				}
+				terms = head.getInt();
+				triples = head.getInt();
+				long[] pos = new long[6];
+				for (int i = 0; i < pos.length; i++) {
+					pos[i] = head.getLong();
+				}
+				int len = head.getInt();
+				if (len < 0 || len > head.remaining()) {
+					throw new IOException("Invalid graph name in " + file);
+				}
+				byte[] name = new byte[len];
+				head.get(name);
+				graph = new String(name, StandardCharsets.UTF_8);
+
+				offsets = ch.map(FileChannel.MapMode.READ_ONLY, pos[0], pos[1] - pos[0]).asIntBuffer();
+				bytes = ch.map(FileChannel.MapMode.READ_ONLY, pos[1], pos[2] - pos[1]);
+				for (int i = 0; i < 3; i++) {
+					long end = (i < 2) ? pos[i + 4] : ch.size();
+					orders[i] = ch.map(FileChannel.MapMode.READ_ONLY, pos[i + 3], 
+										end - pos[i + 3]).asIntBuffer();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get term as N-Triples string.
+	 * Blank node identifiers are kept as they are, since N-Triples escaping
+	 * would change them.
+	 * 
+	 * @param v term
+	 * @return string
+	 */
+	private static String encode(Value v) {
+		return (v instanceof BNode) ? "_:" + ((BNode) v).getID() 
+									: NTriplesUtil.toNTriplesString(v);
+	}
+
+	/**
+	 * Get term from N-Triples string
+	 * 
+	 * @param str string
+	 * @return term
+	 */
+	private static Value decode(String str) {
+		return str.startsWith("_:") ? F.createBNode(str.substring(2)) 
+									: NTriplesUtil.parseValue(str, F);
+	}
+
+	/**
+	 * Set directory for compiled snapshots and remove existing snapshots
+	 * 
+	 * @param dir directory or null to disable snapshots
+	 */
+	public static void configure(Path dir) {
+		FragmentIndex.dir = dir;
+		SNAPSHOTS.clear();
+		if (dir == null) {
+			return;
+		}
+		try {
+			Files.createDirectories(dir);
+			int n = 0;
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*{" + EXT + ",.tmp}")) {
+				for (Path file: files) {
+					Files.delete(file);
+					n++;
+				}
+			}
+			if (n > 0) {
+				LOG.info("Removed {} fragment snapshots, possibly out of date", n);
+			}
+		} catch (IOException ioe) {
+			LOG.error("Could not remove fragment snapshots", ioe);
+		}
+	}
+
+	/**
+	 * Check if snapshots are enabled
+	 * 
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return dir != null;
+	}
+
+	/**
+	 * Get snapshot of a named graph
+	 * 
+	 * @param graph named graph
+	 * @return snapshot or null
+	 */
+	public static Snapshot get(String graph) {
+		return SNAPSHOTS.get(graph);
+	}
+
+	/**
+	 * Get file name of the snapshot of a named graph
+	 * 
+	 * @param graph named graph
+	 * @return path
+	 */
+	private static Path getFile(String graph) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1")
+									.digest(graph.getBytes(StandardCharsets.UTF_8));
+			StringBuilder buf = new StringBuilder();
+			for (byte b: hash) {
+				buf.append(String.format("%02x", b));
+			}
+			return dir.resolve(buf.append(EXT).toString());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Remove the snapshot of a changed named graph
+	 * 
+	 * @param graph named graph or null for all graphs
+	 */
+	public static void invalidate(String graph) {
+		if (dir == null) {
+			return;
+		}
+		synchronized (LOCK) {
+			List<String> graphs = (graph != null) ? Arrays.asList(graph) 
+												: new ArrayList<>(SNAPSHOTS.keySet());
+			for (String g: graphs) {
+				if (SNAPSHOTS.remove(g) != null) {
+					try {
+						Files.deleteIfExists(getFile(g));
+					} catch (IOException ioe) {
+						LOG.warn("Could not delete snapshot of {}", g, ioe);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sort the triples in one ordering
+	 * 
+	 * @param spo triples as term numbers
+	 * @param n number of triples
+	 * @param perm ordering
+	 * @return sorted row numbers
+	 */
+	private static Integer[] sort(int[] spo, int n, int[] perm) {
+		Integer[] rows = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			rows[i] = i;
+		}
+		Comparator<Integer> cmp = (a, b) -> {
+			for (int p: perm) {
+				int c = Integer.compare(spo[a * 3 + p], spo[b * 3 + p]);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return 0;
+		};
+		Arrays.sort(rows, cmp);
+		return rows;
+	}
+
+	/**
+	 * Compile a named graph into a snapshot file
+	 * 
+	 * @param repo RDF store
+	 * @param graph named graph
+	 * @param job job for progress and cancellation
+	 * @throws IOException
+	 */
+	public static void compile(Repository repo, String graph, Job job) throws IOException {
+		if (dir == null) {
+			return;
+		}
+		long version = StoreVersion.getVersion(graph);
+		long start = System.currentTimeMillis();
+
+		// read triples, numbering terms in order of appearance
+		Map<String, Integer> ids = new HashMap<>();
+		List<String> names = new ArrayList<>();
+		int[] spo = new int[3 * 1024];
+		int n = 0;
+
+		try (RepositoryConnection conn = repo.getConnection();
+			RepositoryResult<Statement> res = conn.getStatements(null, null, null, false, 
+														F.createIRI(graph))) {
+			while (res.hasNext()) {
+				job.checkCancelled();
+				Statement st = res.next();
+				if (n * 3 + 3 > spo.length) {
+					spo = Arrays.copyOf(spo, spo.length * 2);
+				}
+				Value[] vals = { st.getSubject(), st.getPredicate(), st.getObject() };
+				for (int i = 0; i < 3; i++) {
+					String name = encode(vals[i]);
+					Integer id = ids.get(name);
+					if (id == null) {
+						id = names.size();
+						ids.put(name, id);
+						names.add(name);
+					}
+					spo[n * 3 + i] = id;
+				}
+				n++;
+			}
+		}
+
+		// sort the dictionary by UTF-8 bytes, and renumber the terms
+		int terms = names.size();
+		byte[][] utf = new byte[terms][];
+		Integer[] sorted = new Integer[terms];
+		for (int i = 0; i < terms; i++) {
+			utf[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, (a, b) -> compareBytes(utf[a], utf[b]));
+		int[] renum = new int[terms];
+		for (int i = 0; i < terms; i++) {
+			renum[sorted[i]] = i;
+		}
+		for (int i = 0; i < n * 3; i++) {
+			spo[i] = renum[spo[i]];
+		}
+
+		Path tmp = Files.createTempFile(dir, "frag", ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			byte[] name = graph.getBytes(StandardCharsets.UTF_8);
+			long header = 8 + 4 + 4 + 4 + 6 * 8 + 4 + name.length;
+			header = (header + 7) & ~7L;
+
+			long bytesLen = 0;
+			for (byte[] b: utf) {
+				bytesLen += b.length;
+			}
+			if (bytesLen > Integer.MAX_VALUE || 12L * n > Integer.MAX_VALUE) {
+				throw new IOException("Graph too large for a snapshot");
+			}
+			long[] pos = new long[6];
+			pos[0] = header;
+			pos[1] = pos[0] + 4L * (terms + 1);
+			pos[2] = pos[1] + bytesLen;
+			pos[3] = (pos[2] + 7) & ~7L;
+			pos[4] = pos[3] + 12L * n;
+			pos[5] = pos[4] + 12L * n;
+
+			out.writeLong(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeInt(terms);
+			out.writeInt(n);
+			for (long p: pos) {
+				out.writeLong(p);
+			}
+			out.writeInt(name.length);
+			out.write(name);
+			out.write(new byte[(int) (header - out.size())]);
+
+			int off = 0;
+			for (Integer i: sorted) {
+				out.writeInt(off);
+				off += utf[i].length;
+			}
+			out.writeInt(off);
+			for (Integer i: sorted) {
+				out.write(utf[i]);
+			}
+			out.write(new byte[(int) (pos[3] - pos[2])]);
+
+			for (int[] perm: ORDERS) {
+				job.checkCancelled();
+				for (Integer row: sort(spo, n, perm)) {
+					for (int p: perm) {
+						out.writeInt(spo[row * 3 + p]);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+
+		// do not use the snapshot if the graph changed while compiling.
+		// the version is increased before invalidating, so a change after this check
+		// removes the snapshot again
+		synchronized (LOCK) {
+			if (StoreVersion.getVersion(graph) != version) {
+				Files.deleteIfExists(tmp);
+				LOG.warn("Graph {} changed while compiling, snapshot discarded", graph);
+				return;
+			}
+			Path file = getFile(graph);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			SNAPSHOTS.put(graph, new Snapshot(file));
+		}
+
+		LOG.info("Snapshot of {} with {} triples compiled in {} ms", graph, n, 
+								System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Compare byte arrays as unsigned bytes
+	 * 
+	 * @param a first array
+	 * @param b second array
+	 * @return negative, zero or positive
+	 */
+	private static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.query;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import org.eclipse.rdf4j.sail.base.SnapshotSailStore;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
+import org.eclipse.rdf4j.sail.nativerdf.ValueStore;
+import org.eclipse.rdf4j.sail.nativerdf.btree.BTree;
+import org.eclipse.rdf4j.sail.nativerdf.btree.RecordIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resume a triple pattern scan at the last statement of the previous page.
+ * 
+ * The native store keeps statements in B-tree indexes, sorted on the ids of
+ * subject, predicate, object and context. Instead of skipping all previous results,
+ * the range scan is restarted at the key of the last statement sent, 
+ * so the cost of a page does not depend on its position.
+ * 
+ * The store has no public API for this, so the indexes are accessed via reflection.
+ * When they can't be reached, parked scans are used instead.
+ * 
+ * @author Bart.Hanssens
+ */
+public class IndexSeek {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(IndexSeek.class);
+
+	private final static ValueFactory F = SimpleValueFactory.getInstance();
+
+	// layout of a record in the triple indexes, see TripleStore
+	private final static int RECORD_LENGTH = 17;
+	private final static int SUBJ_IDX = 0;
+	private final static int PRED_IDX = 4;
+	private final static int OBJ_IDX = 8;
+	private final static int CONTEXT_IDX = 12;
+	private final static int FLAG_IDX = 16;
+	private final static byte EXPLICIT_FLAG = 1;
+	private final static byte ADDED_FLAG = 2;
+
+	// wildcard and unknown value
+	private final static int ANY = -1;
+	// default graph
+	private final static int DEFAULT = 0;
+
+	private static NativeStore store = null;
+	private static boolean failed = false;
+
+	private static Object triples = null;
+	private static ValueStore values = null;
+	private static Method bestIndex = null;
+	private static Method getBTree = null;
+	private static Field revisit = null;
+
+	/**
+	 * Configure the store to seek in
+	 * 
+	 * @param store native store or null to disable seeking
+	 */
+	public static synchronized void configure(NativeStore store) {
+		IndexSeek.store = store;
+		failed = false;
+		triples = null;
+		values = null;
+	}
+
+	/**
+	 * Get (private) field of an object or one of its superclasses
+	 * 
+	 * @param obj object
+	 * @param name field name
+	 * @return value
+	 * @throws ReflectiveOperationException 
+	 */
+	private static Object field(Object obj, String name) throws ReflectiveOperationException {
+		for (Class<?> cl = obj.getClass(); cl != null; cl = cl.getSuperclass()) {
+			try {
+				Field f = cl.getDeclaredField(name);
+				f.setAccessible(true);
+				return f.get(obj);
+			} catch (NoSuchFieldException e) {
+				// try superclass
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
+	/**
+	 * Look up the triple and value stores of the native store, once initialized
+	 * 
+	 * @return true if the indexes can be used
+	 */
+	private static synchronized boolean init() {
+		if (triples != null) {
+			return true;
+		}
+		if (store == null || failed) {
+			return false;
+		}
+		try {
+			Object sail = field(store, "store");
+			if (sail == null) {
+				// not initialized yet
+				return false;
+			}
+			if (sail instanceof SnapshotSailStore) {
+				sail = field(sail, "backingStore");
+			}
+			Object t = field(sail, "tripleStore");
+			Method m = t.getClass().getDeclaredMethod("getBestIndex", 
+											int.class, int.class, int.class, int.class);
+			m.setAccessible(true);
+			getBTree = m.getReturnType().getMethod("getBTree");
+			getBTree.setAccessible(true);
+			revisit = Class.forName(BTree.class.getName() + "$RangeIterator")
+										.getDeclaredField("revisitValue");
+			revisit.setAccessible(true);
+			bestIndex = m;
+			values = (ValueStore) field(sail, "valueStore");
+			triples = t;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOG.warn("Triple indexes not available, using parked scans", e);
+			failed = true;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Create a record with the same layout as the triple indexes
+	 * 
+	 * @param subj subject id
+	 * @param pred predicate id
+	 * @param obj object id
+	 * @param ctx context id
+	 * @param flags flags
+	 * @return bytes
+	 */
+	private static byte[] record(int subj, int pred, int obj, int ctx, byte flags) {
+		byte[] rec = new byte[RECORD_LENGTH];
+		putInt(rec, SUBJ_IDX, subj);
+		putInt(rec, PRED_IDX, pred);
+		putInt(rec, OBJ_IDX, obj);
+		putInt(rec, CONTEXT_IDX, ctx);
+		rec[FLAG_IDX] = flags;
+		return rec;
+	}
+
+	/**
+	 * Put integer (big endian) in record
+	 * 
+	 * @param rec record
+	 * @param pos position
+	 * @param val value
+	 */
+	private static void putInt(byte[] rec, int pos, int val) {
+		rec[pos] = (byte) (val >>> 24);
+		rec[pos + 1] = (byte) (val >>> 16);
+		rec[pos + 2] = (byte) (val >>> 8);
+		rec[pos + 3] = (byte) val;
+	}
+
+	/**
+	 * Get integer (big endian) from record
+	 * 
+	 * @param rec record
+	 * @param pos position
+	 * @return value
+	 */
+	private static int getInt(byte[] rec, int pos) {
+		return ((rec[pos] & 0xFF) << 24) | ((rec[pos + 1] & 0xFF) << 16) 
+				| ((rec[pos + 2] & 0xFF) << 8) | (rec[pos + 3] & 0xFF);
+	}
+
+	/**
+	 * Get the id of a value
+	 * 
+	 * @param val value or null
+	 * @return id or wildcard when null or unknown
+	 * @throws IOException 
+	 */
+	private static int id(Value val) throws IOException {
+		return (val != null) ? values.getID(val) : ANY;
+	}
+
+	/**
+	 * Get the statements following the last statement sent, in index order
+	 * 
+	 * @param subj subject IRI or null
+	 * @param pred predicate IRI or null
+	 * @param obj object value or null
+	 * @param graph named graph or null for all graphs
+	 * @param named true to skip the default graph
+	 * @param last last statement sent or null to start at the beginning
+	 * @param max maximum number of statements
+	 * @return list of statements or null when the indexes can't be used
+	 */
+	public static List<Statement> seek(IRI subj, IRI pred, Value obj, IRI graph,
+			boolean named, Statement last, int max) {
+		if (!init()) {
+			return null;
+		}
+		List<Statement> res = new ArrayList<>(max);
+		try {
+			int s = id(subj);
+			int p = id(pred);
+			int o = id(obj);
+			int c = id(graph);
+			// values not in the store, so no results
+			if ((subj != null && s == ANY) || (pred != null && p == ANY) 
+				|| (obj != null && o == ANY) || (graph != null && c == ANY)) {
+				return res;
+			}
+
+			Object index = bestIndex.invoke(triples, s, p, o, c);
+			BTree btree = (BTree) getBTree.invoke(index);
+
+			byte[] min = record(Math.max(s, 0), Math.max(p, 0), Math.max(o, 0), Math.max(c, 0), (byte) 0);
+			int ls = 0, lp = 0, lo = 0, lc = 0;
+			if (last != null) {
+				ls = id(last.getSubject());
+				lp = id(last.getPredicate());
+				lo = id(last.getObject());
+				lc = (last.getContext() != null) ? id(last.getContext()) : DEFAULT;
+				if (ls == ANY || lp == ANY || lo == ANY || lc == ANY) {
+					return null;
+				}
+				min = record(ls, lp, lo, lc, (byte) 0);
+			}
+			// wildcards are all ones, so the maximum is the highest possible value
+			byte[] maxVal = record(s, p, o, c, (byte) 0xFF);
+			// bound values of committed, explicit statements
+			byte[] key = record(Math.max(s, 0), Math.max(p, 0), Math.max(o, 0), Math.max(c, 0), 
+								EXPLICIT_FLAG);
+			byte[] mask = record((s == ANY) ? 0 : ANY, (p == ANY) ? 0 : ANY, (o == ANY) ? 0 : ANY, 
+								(c == ANY) ? 0 : ANY, (byte) (EXPLICIT_FLAG | ADDED_FLAG));
+
+			RecordIterator iter = btree.iterateRangedValues(key, mask, min, maxVal);
+			// when the minimum is found in an inner node of the tree, the iterator would 
+			// continue in the subtree left of it, unless told to return that value first
+			((AtomicBoolean) revisit.get(iter)).set(true);
+			try {
+				byte[] rec;
+				while (res.size() < max && (rec = iter.next()) != null) {
+					int rs = getInt(rec, SUBJ_IDX);
+					int rp = getInt(rec, PRED_IDX);
+					int ro = getInt(rec, OBJ_IDX);
+					int rc = getInt(rec, CONTEXT_IDX);
+					if (last != null && rs == ls && rp == lp && ro == lo && rc == lc) {
+						continue;
+					}
+					if (named && rc == DEFAULT) {
+						continue;
+					}
+					res.add(F.createStatement((Resource) values.getValue(rs), 
+								(IRI) values.getValue(rp), values.getValue(ro), 
+								(rc != DEFAULT) ? (Resource) values.getValue(rc) : null));
+				}
+			} finally {
+				iter.close();
+			}
+		} catch (IOException | ReflectiveOperationException | RuntimeException e) {
+			LOG.warn("Could not seek in triple index", e);
+			return null;
+		}
+		return res;
+	}
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.query;
+
+import be.belgif.dw.ldf.helpers.StoreVersion;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory prefix index on SKOS preferred and alternative labels,
+ * per named graph and per language, for autocomplete.
+ * 
+ * Labels are normalized and kept in sorted arrays, so a lookup is a binary 
+ * search followed by a short scan.
+ * Each word of a label is indexed, so "union" also finds "European Union".
+ * 
+ * A graph is indexed when it is first used, and rebuilt in the background 
+ * when it changes, while the previous version is still being used.
+ * Each version of the index keeps the store version it was built from,
+ * so the entity tag of a suggestion always matches the labels it was made from.
+ * Indexes are built on a single thread, one after the other, in the order
+ * in which they were requested or invalidated.
+ * 
+ * @author Bart.Hanssens
+ */
+public class LabelIndex {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(LabelIndex.class);
+
+	private final static Pattern MARKS = Pattern.compile("\\p{M}+");
+	private final static Pattern SPACES = Pattern.compile("[\\s\\p{Punct}]+");
+
+	// limit the number of entries checked for very short prefixes
+	private final static int MAX_SCAN = 2000;
+
+	private static Repository repo;
+
+	// labels per existing named graph
+	private final static Map<String, Index> GRAPHS = new ConcurrentHashMap<>();
+	private final static Map<String, Future<Index>> LOADING = new ConcurrentHashMap<>();
+	private final static Set<String> PENDING = ConcurrentHashMap.newKeySet();
+	private final static ExecutorService BUILDER = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "label-index");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Matching label
+	 */
+	public static class Suggestion {
+		private final Resource subj;
+		private final IRI pred;
+		private final Literal label;
+		private final long rank;
+
+		/**
+		 * Get subject
+		 * 
+		 * @return subject
+		 */
+		public Resource getSubject() {
+			return subj;
+		}
+
+		/**
+		 * Get label property, preferred or alternative label
+		 * 
+		 * @return property
+		 */
+		public IRI getPredicate() {
+			return pred;
+		}
+
+		/**
+		 * Get label
+		 * 
+		 * @return label
+		 */
+		public Literal getLabel() {
+			return label;
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param subj subject
+		 * @param pred label property
+		 * @param label label
+		 * @param rank rank, lower is better
+		 */
+		private Suggestion(Resource subj, IRI pred, Literal label, long rank) {
+			this.subj = subj;
+			this.pred = pred;
+			this.label = label;
+			this.rank = rank;
+		}
+	}
+
+	/**
+	 * Sorted labels of one graph in one language
+	 */
+	private static class Labels {
+		// normalized label or word suffix, sorted
+		private final String[] keys;
+		// label number, negative if the key does not start at the first word
+		private final int[] refs;
+		private final Resource[] subjs;
+		private final Literal[] labels;
+		// true for alternative labels
+		private final boolean[] alt;
+
+		/**
+		 * Get rank, lower is better: full label before word, preferred before
+		 * alternative label, short before long
+		 * 
+		 * @param i entry number
+		 * @return rank
+		 */
+		private long rank(int i) {
+			int ref = refs[i];
+			int label = (ref < 0) ? -ref - 1 : ref;
+			long r = labels[label].getLabel().length();
+			if (alt[label]) {
+				r += 1L << 32;
+			}
+			if (ref < 0) {
+				r += 1L << 33;
+			}
+			return r;
+		}
+
+		/**
+		 * Find labels starting with a prefix
+		 * 
+		 * @param prefix normalized prefix
+		 * @param res list of suggestions to add to
+		 */
+		private void find(String prefix, List<Suggestion> res) {
+			int i = Arrays.binarySearch(keys, prefix);
+			if (i < 0) {
+				i = -i - 1;
+			}
+			int end = Math.min(keys.length, i + MAX_SCAN);
+			for (; i < end && keys[i].startsWith(prefix); i++) {
+				int ref = refs[i];
+				int label = (ref < 0) ? -ref - 1 : ref;
+				IRI pred = alt[label] ? SKOS.ALT_LABEL : SKOS.PREF_LABEL;
+				// exact match of a full label goes first
+				long rank = (ref >= 0 && keys[i].length() == prefix.length()) ? 0 : rank(i);
+				res.add(new Suggestion(subjs[label], pred, labels[label], rank));
+			}
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param keys sorted keys
+		 * @param refs label number per key
+		 * @param subjs subject per label
+		 * @param labels labels
+		 * @param alt true for alternative labels
+		 */
+		private Labels(String[] keys, int[] refs, Resource[] subjs, 
+						Literal[] labels, boolean[] alt) {
+			this.keys = keys;
+			this.refs = refs;
+			this.subjs = subjs;
+			this.labels = labels;
+			this.alt = alt;
+		}
+	}
+
+	/**
+	 * Labels of one graph, per language, built from one version of the store
+	 */
+	public static class Index {
+		private final long version;
+		private final long modified;
+		private final Map<String, Labels> langs;
+
+		/**
+		 * Get store version of the graph the index was built from
+		 * 
+		 * @return version number
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Get last modification of the graph the index was built from
+		 * 
+		 * @return date
+		 */
+		public Date getLastModified() {
+			return new Date(modified);
+		}
+
+		/**
+		 * Get the best matching labels
+		 * 
+		 * @param text text typed so far
+		 * @param lang lowercase language or null for all languages
+		 * @param max maximum number of concepts
+		 * @return list of suggestions, at most one per concept
+		 */
+		public List<Suggestion> suggest(String text, String lang, int max) {
+			String prefix = normalize(text);
+			if (prefix.isEmpty()) {
+				return Collections.emptyList();
+			}
+			List<Suggestion> found = new ArrayList<>();
+			if (lang != null) {
+				Labels labels = langs.get(lang);
+				if (labels != null) {
+					labels.find(prefix, found);
+				}
+			} else {
+				langs.values().forEach(labels -> labels.find(prefix, found));
+			}
+			found.sort((a, b) -> Long.compare(a.rank, b.rank));
+
+			List<Suggestion> res = new ArrayList<>(max);
+			Set<Resource> seen = new HashSet<>();
+			for (Suggestion s: found) {
+				if (seen.add(s.getSubject())) {
+					res.add(s);
+					if (res.size() >= max) {
+						break;
+					}
+				}
+			}
+			return res;
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param version store version
+		 * @param modified time of last modification
+		 * @param langs labels per language
+		 */
+		private Index(long version, long modified, Map<String, Labels> langs) {
+			this.version = version;
+			this.modified = modified;
+			this.langs = langs;
+		}
+	}
+
+	/**
+	 * Labels of one language, used while building the index
+	 */
+	private static class Builder {
+		private final List<String> keys = new ArrayList<>();
+		private final List<Integer> refs = new ArrayList<>();
+		private final List<Resource> subjs = new ArrayList<>();
+		private final List<Literal> labels = new ArrayList<>();
+		private final List<Boolean> alt = new ArrayList<>();
+
+		/**
+		 * Add label and the words it contains
+		 * 
+		 * @param st label statement
+		 */
+		private void add(Statement st) {
+			int nr = labels.size();
+			String key = normalize(st.getObject().stringValue());
+			if (key.isEmpty()) {
+				return;
+			}
+			subjs.add(st.getSubject());
+			labels.add((Literal) st.getObject());
+			alt.add(SKOS.ALT_LABEL.equals(st.getPredicate()));
+
+			keys.add(key);
+			refs.add(nr);
+			for (int i = key.indexOf(' '); i >= 0; i = key.indexOf(' ', i + 1)) {
+				keys.add(key.substring(i + 1));
+				refs.add(-nr - 1);
+			}
+		}
+
+		/**
+		 * Sort the keys
+		 * 
+		 * @return sorted labels
+		 */
+		private Labels build() {
+			Integer[] order = new Integer[keys.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> keys.get(a).compareTo(keys.get(b)));
+			
+			String[] k = new String[order.length];
+			int[] r = new int[order.length];
+			for (int i = 0; i < order.length; i++) {
+				k[i] = keys.get(order[i]);
+				r[i] = refs.get(order[i]);
+			}
+			boolean[] a = new boolean[alt.size()];
+			for (int i = 0; i < a.length; i++) {
+				a[i] = alt.get(i);
+			}
+			return new Labels(k, r, subjs.toArray(new Resource[subjs.size()]),
+							labels.toArray(new Literal[labels.size()]), a);
+		}
+	}
+
+	/**
+	 * Set repository
+	 * 
+	 * @param repo RDF store
+	 */
+	public static void configure(Repository repo) {
+		LabelIndex.repo = repo;
+	}
+
+	/**
+	 * Lowercase and remove accents and punctuation
+	 * 
+	 * @param str string
+	 * @return normalized string
+	 */
+	public static String normalize(String str) {
+		String s = MARKS.matcher(Normalizer.normalize(str, Normalizer.Form.NFD)).replaceAll("");
+		return SPACES.matcher(s.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+	}
+
+	/**
+	 * Read labels of a named graph
+	 * 
+	 * @param graph named graph
+	 * @return index or null if the graph does not exist
+	 */
+	private static Index build(String graph) {
+		long start = System.currentTimeMillis();
+		// get the version before reading, a change while reading causes a rebuild
+		long modified = StoreVersion.getLastModified(graph).getTime();
+		long version = StoreVersion.getVersion(graph);
+
+		Map<String, Builder> builders = new HashMap<>();
+		Resource ctx = SimpleValueFactory.getInstance().createIRI(graph);
+
+		try (RepositoryConnection conn = repo.getConnection()) {
+			if (!conn.hasStatement(null, null, null, false, ctx)) {
+				return null;
+			}
+			for (IRI pred: new IRI[] { SKOS.PREF_LABEL, SKOS.ALT_LABEL }) {
+				try (RepositoryResult<Statement> res = 
+									conn.getStatements(null, pred, null, false, ctx)) {
+					while (res.hasNext()) {
+						Statement st = res.next();
+						Value obj = st.getObject();
+						if (obj instanceof Literal) {
+							String lang = ((Literal) obj).getLanguage().orElse("")
+															.toLowerCase(Locale.ROOT);
+							builders.computeIfAbsent(lang, k -> new Builder()).add(st);
+						}
+					}
+				}
+			}
+		}
+		Map<String, Labels> m = new HashMap<>();
+		builders.forEach((lang, b) -> m.put(lang, b.build()));
+
+		LOG.info("Label index for {} built in {} ms", graph, System.currentTimeMillis() - start);
+		return new Index(version, modified, Collections.unmodifiableMap(m));
+	}
+
+	/**
+	 * Build the index of a named graph and keep it, or remove it if the graph is gone
+	 * 
+	 * @param graph named graph
+	 * @return index or null
+	 */
+	private static Index load(String graph) {
+		Index idx = build(graph);
+		if (idx != null) {
+			GRAPHS.put(graph, idx);
+		} else {
+			GRAPHS.remove(graph);
+		}
+		return idx;
+	}
+
+	/**
+	 * Get labels of a named graph, building the index when needed.
+	 * Only indexes of existing graphs are kept.
+	 * 
+	 * @param graph named graph
+	 * @return index, empty if the graph does not exist
+	 */
+	public static Index get(String graph) {
+		Index idx = GRAPHS.get(graph);
+		if (idx != null) {
+			return idx;
+		}
+		// only removed after it was added, so a finished load is never reused
+		FutureTask<Index> task = new FutureTask<>(() -> {
+			try {
+				return load(graph);
+			} finally {
+				LOADING.remove(graph);
+			}
+		});
+		Future<Index> f = LOADING.putIfAbsent(graph, task);
+		if (f == null) {
+			f = task;
+			BUILDER.execute(task);
+		}
+		try {
+			idx = f.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new WebApplicationException("Interrupted", ie);
+		} catch (ExecutionException ee) {
+			throw new WebApplicationException("Could not build label index", ee.getCause());
+		}
+		return (idx != null) ? idx : new Index(StoreVersion.getVersion(graph), 
+								StoreVersion.getLastModified(graph).getTime(), 
+								Collections.emptyMap());
+	}
+
+	/**
+	 * Rebuild the index of a changed named graph in the background.
+	 * Changes to all graphs simply remove the index, so it is rebuilt when used.
+	 * 
+	 * @param graph named graph or null for all graphs
+	 */
+	public static void invalidate(String graph) {
+		if (graph == null) {
+			BUILDER.submit(() -> GRAPHS.clear());
+			return;
+		}
+		// a load in progress may have read the graph before the change
+		if (!(GRAPHS.containsKey(graph) || LOADING.containsKey(graph)) || !PENDING.add(graph)) {
+			return;
+		}
+		BUILDER.submit(() -> {
+			PENDING.remove(graph);
+			try {
+				load(graph);
+			} catch (RepositoryException e) {
+				LOG.error("Could not rebuild label index for {}", graph, e);
+				GRAPHS.remove(graph);
+			}
+		});
+	}
+}
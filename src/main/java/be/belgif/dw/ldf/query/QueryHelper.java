@@ -26,12 +26,14 @@
 package be.belgif.dw.ldf.query;
 
 import be.belgif.dw.ldf.App;
+import be.belgif.dw.ldf.helpers.StoreVersion;
+import be.belgif.dw.ldf.helpers.RDFStream;
+
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.ws.rs.WebApplicationException;
 
-import org.eclipse.rdf4j.common.iteration.Iterations;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Model;
@@ -132,22 +134,28 @@ public class QueryHelper {
 	 
 	
 	/**
-	 * Get all triples from a graph
+	 * Get all triples from a graph, streamed from the store
 	 * 
 	 * @param repo RDF store
 	 * @param subj subject IRI or null
 	 * @param from named graph
 	 * @return all triples in a graph
 	 */
-	public static Model get(Repository repo, IRI subj, String from) {
-		Model m = new LinkedHashModel();
-	
-		try (RepositoryConnection conn = repo.getConnection()) {
-			Iterations.addAll(conn.getStatements(subj, null, null, asGraph(from)), m);
+	public static RDFStream get(Repository repo, IRI subj, String from) {
+		Model head = new LinkedHashModel();
+		NS_MAP.forEach((p, n) -> head.setNamespace(p, n));
+
+		RepositoryConnection conn = null;
+		try {
+			conn = repo.getConnection();
+			return new RDFStream(head, 
+						conn.getStatements(subj, null, null, asGraph(from)), conn);
 		} catch (RepositoryException e) {
+			if (conn != null) {
+				conn.close();
+			}
 			throw new WebApplicationException(e);
 		}
-		return setNamespaces(m);
 	}
 	
 
@@ -160,6 +168,8 @@ public class QueryHelper {
 	public static void putStatements(Repository repo, Model m) {
 		try (RepositoryConnection conn = repo.getConnection()) {
 			conn.add(m);
+			m.contexts().forEach(ctx -> 
+				StoreVersion.changed((ctx != null) ? ctx.stringValue() : null));
 		} catch (RepositoryException e) {
 			throw new WebApplicationException(e);
 		}
@@ -174,6 +184,7 @@ public class QueryHelper {
 	public static void deleteStatements(Repository repo, String url) {
 		try (RepositoryConnection conn = repo.getConnection()) {
 			conn.remove(F.createIRI(url), null, null);
+			StoreVersion.changed(null);
 		} catch (RepositoryException e) {
 			throw new WebApplicationException(e);
 		}
@@ -25,52 +25,353 @@
  */
 package be.belgif.dw.ldf.query;
 
+import be.belgif.dw.ldf.App;
+import be.belgif.dw.ldf.helpers.SearchIndexer;
+import be.belgif.dw.ldf.vocab.Hydra;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
 
-import org.eclipse.rdf4j.model.Model;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+
+import org.eclipse.rdf4j.common.iteration.Iterations;
 
-import org.eclipse.rdf4j.query.GraphQuery;
-import org.eclipse.rdf4j.query.MalformedQueryException;
-import org.eclipse.rdf4j.query.QueryEvaluationException;
-import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.FOAF;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
 
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.sail.lucene.LuceneIndex;
+import org.eclipse.rdf4j.sail.lucene.LuceneSail;
+import org.eclipse.rdf4j.sail.lucene.SearchFields;
+import org.eclipse.rdf4j.sail.lucene.SearchIndex;
 
 /**
- * Helper class for querying the triple store
+ * Helper class for full text search, with paging.
+ * 
+ * Only the top hits of the Lucene index are retrieved, ordered by score,
+ * so memory and latency are bounded.
  * 
  * @author Bart.Hanssens
  */
 public class QueryHelperFTS {
-	private final static String Q_FTS = 
-		"PREFIX search: <http://www.openrdf.org/contrib/lucenesail#> " + "\n" +
-		"PREFIX skos: <http://www.w3.org/2004/02/skos/core#> " + "\n" +
-		"CONSTRUCT { ?s skos:prefLabel ?o }" +
-		" WHERE { " +
-			" GRAPH ?graph { " +
-				" ?s search:matches [ search:query ?query ] ." +
-				" ?s skos:prefLabel ?o } . " +
-		"}";
-	
+	public final static String FTS = "_fts";
+
+	private final static ValueFactory F = SimpleValueFactory.getInstance();
+
+	private final static String PREFIX = App.getPrefix();
+	private final static BNode FTS_SEARCH = F.createBNode("fts");
+	private final static BNode FTS_MAP_Q = F.createBNode("q");
+	private final static Value Q = F.createLiteral("q");
+	private final static IRI SCORE = 
+				F.createIRI("http://www.openrdf.org/contrib/lucenesail#score");
+
+	private final static String PAGE = "page";
+	private final static String CURSOR = "cursor";
+
+	private final static int PAGING = 50;
+	private final static Value PAGING_VAL = F.createLiteral("50", XMLSchema.INTEGER);
+	// deeper pages can only be retrieved using a cursor
+	private final static int MAX_OFFSET = 1000;
+
+	// all literals, like the search:query of the lucene sail
+	private final static String FIELD = SearchFields.TEXT_FIELD_NAME;
+	private final static Set<String> URI_FIELD = 
+						Collections.singleton(SearchFields.URI_FIELD_NAME);
+
+	private static int minLength = 3;
+
+	/**
+	 * Set minimum length of the search text
+	 * 
+	 * @param len number of characters
+	 */
+	public static void setMinLength(int len) {
+		minLength = len;
+	}
+
+	/**
+	 * Get cursor
+	 * 
+	 * @param offset offset of the next hit
+	 * @param version version of the index reader
+	 * @param last last hit
+	 * @return cursor
+	 */
+	private static String encode(int offset, long version, ScoreDoc last) {
+		String str = offset + "\n" + version + "\n" + last.doc + "\n" + last.score;
+		return Base64.getUrlEncoder().withoutPadding()
+								.encodeToString(str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decode cursor
+	 * 
+	 * @param cursor cursor
+	 * @return array with offset, version, document and score
+	 */
+	private static String[] decode(String cursor) {
+		try {
+			String str = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			String[] parts = str.split("\n");
+			if (parts.length != 4) {
+				throw new IllegalArgumentException("Invalid cursor");
+			}
+			int offset = Integer.parseInt(parts[0]);
+			if (offset < 0 || offset > Integer.MAX_VALUE - PAGING) {
+				throw new IllegalArgumentException("Invalid offset");
+			}
+			Long.parseLong(parts[1]);
+			Integer.parseInt(parts[2]);
+			Float.parseFloat(parts[3]);
+			return parts;
+		} catch (IllegalArgumentException iae) {
+			throw new WebApplicationException("Invalid cursor", Response.Status.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * Split the search text into terms, using the analyzer of the index
+	 * 
+	 * @param analyzer analyzer
+	 * @param text search text
+	 * @return list of terms
+	 * @throws IOException 
+	 */
+	private static List<String> analyze(Analyzer analyzer, String text) throws IOException {
+		List<String> terms = new ArrayList<>();
+		try (TokenStream ts = analyzer.tokenStream(FIELD, text)) {
+			CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+			ts.reset();
+			while (ts.incrementToken()) {
+				terms.add(term.toString());
+			}
+			ts.end();
+		}
+		return terms;
+	}
+
+	/**
+	 * Build Lucene query: all terms must match, the last one can be a prefix.
+	 * Exact matches get a higher score.
+	 * 
+	 * @param terms search terms
+	 * @param ctx named graph
+	 * @return lucene query
+	 */
+	private static BooleanQuery query(List<String> terms, Resource ctx) {
+		BooleanQuery q = new BooleanQuery();
+		int last = terms.size() - 1;
+		for (int i = 0; i < last; i++) {
+			q.add(new TermQuery(new Term(FIELD, terms.get(i))), BooleanClause.Occur.MUST);
+		}
+		q.add(new PrefixQuery(new Term(FIELD, terms.get(last))), BooleanClause.Occur.MUST);
+		q.add(new TermQuery(new Term(FIELD, terms.get(last))), BooleanClause.Occur.SHOULD);
+		q.add(new TermQuery(new Term(SearchFields.CONTEXT_FIELD_NAME, 
+								SearchFields.getContextID(ctx))), BooleanClause.Occur.MUST);
+		return q;
+	}
+
+	/**
+	 * Get version of the index reader, used to check if a cursor is still valid
+	 * 
+	 * @param reader index reader
+	 * @return version or -1
+	 */
+	private static long getVersion(IndexReader reader) {
+		return (reader instanceof DirectoryReader) ? ((DirectoryReader) reader).getVersion() : -1;
+	}
+
+	/**
+	 * Add hypermedia controls
+	 * 
+	 * @param m model
+	 * @param vocab vocabulary name
+	 * @param builder URI builder, including the search text
+	 * @param offset offset of the first hit
+	 * @param total total number of hits
+	 * @param next cursor for next page or null
+	 */
+	private static void hyperControls(Model m, String vocab, UriBuilder builder, 
+									int offset, int total, String next) {
+		IRI graph = QueryHelper.asGraph("/" + vocab + "#hydra");
+		IRI dataset = QueryHelper.asDataset(vocab);
+
+		UriBuilder cursors = builder.clone().queryParam(CURSOR, "{cursor}");
+		UriBuilder pages = builder.clone().queryParam(PAGE, "{page}");
+		int current = (offset / PAGING) + 1;
+		IRI page = F.createIRI(pages.build(current).toString());
+
+		m.add(dataset, RDF.TYPE, VOID.DATASET, graph);
+		m.add(dataset, RDF.TYPE, Hydra.COLLECTION, graph);
+		m.add(dataset, VOID.SUBSET, page, graph);
+
+		// search template
+		m.add(dataset, Hydra.SEARCH, FTS_SEARCH, graph);
+		m.add(FTS_SEARCH, Hydra.TEMPLATE, 
+				F.createLiteral(PREFIX + FTS + "/" + vocab + "{?q}"), graph);
+		m.add(FTS_SEARCH, Hydra.MAPPING, FTS_MAP_Q, graph);
+		m.add(FTS_MAP_Q, Hydra.VARIABLE, Q, graph);
+		m.add(FTS_MAP_Q, Hydra.PROPERTY, Hydra.FREETEXT, graph);
+
+		m.add(graph, FOAF.PRIMARY_TOPIC, page, graph);
+		m.add(page, RDF.TYPE, Hydra.PARTIAL, graph);
+		m.add(page, Hydra.ITEMS, PAGING_VAL, graph);
+		m.add(page, Hydra.TOTAL, F.createLiteral(String.valueOf(total), XMLSchema.INTEGER), graph);
+
+		m.add(page, Hydra.FIRST, F.createIRI(pages.build(1).toString()), graph);
+		if (offset >= PAGING) {
+			URI prevPage = pages.build(current - 1);
+			m.add(page, Hydra.PREVIOUS, F.createIRI(prevPage.toString()), graph);
+		}
+		if (next != null) {
+			URI nextPage = cursors.build(next);
+			m.add(page, Hydra.NEXT, F.createIRI(nextPage.toString()), graph);
+		}
+	}
+
 	/**
-	 * Full text search
+	 * Full text search on all literals, returning SKOS preferred labels, ordered by score
 	 *
 	 * @param repo RDF store 
 	 * @param text text to search for
-	 * @param from named graph
+	 * @param vocab vocabulary name
+	 * @param page page number, starting at 1, or null
+	 * @param cursor cursor or null
 	 * @return RDF model 
 	 */
-	public static Model getFTS(Repository repo, String text, String from) {
-		try (RepositoryConnection conn = repo.getConnection()) {
-			GraphQuery gq = conn.prepareGraphQuery(Q_FTS);
-			gq.setBinding("query", QueryHelper.asLiteral(text + "*"));
-			gq.setBinding("graph", QueryHelper.asGraph(from));
+	public static Model getFTS(Repository repo, String text, String vocab, 
+								String page, String cursor) {
+		if (text == null || text.trim().length() < minLength) {
+			throw new WebApplicationException("Search text too short", 
+											Response.Status.BAD_REQUEST);
+		}
+		LuceneSail lucene = SearchIndexer.getLuceneSail(repo);
+		if (lucene == null || !(lucene.getLuceneIndex() instanceof LuceneIndex)) {
+			throw new WebApplicationException("No full text index");
+		}
+		String[] after = (cursor != null && !cursor.isEmpty()) ? decode(cursor) : null;
+		int offset = 0;
+		if (after != null) {
+			offset = Integer.parseInt(after[0]);
+		} else if (page != null && !page.isEmpty()) {
+			try {
+				offset = (Integer.parseInt(page) - 1) * PAGING;
+			} catch (NumberFormatException nfe) {
+				throw new WebApplicationException("Invalid page", Response.Status.BAD_REQUEST);
+			}
+			if (offset < 0 || offset > MAX_OFFSET) {
+				throw new WebApplicationException("Page out of range", Response.Status.BAD_REQUEST);
+			}
+		}
+
+		IRI ctx = QueryHelper.asGraph(vocab);
+		SearchIndex index = lucene.getLuceneIndex();
+		List<Resource> hits = new ArrayList<>();
+		List<Float> scores = new ArrayList<>();
+		int total;
+		String next = null;
 
-			return QueryHelper.setNamespaces(QueryResults.asModel(gq.evaluate()));
-		} catch (RepositoryException|MalformedQueryException|QueryEvaluationException e) {
+		try {
+			List<String> terms = analyze(((LuceneIndex) index).getAnalyzer(), text);
+			if (terms.isEmpty()) {
+				throw new WebApplicationException("No search terms", Response.Status.BAD_REQUEST);
+			}
+			BooleanQuery q = query(terms, ctx);
+
+			index.beginReading();
+			try {
+				IndexSearcher searcher = ((LuceneIndex) index).getIndexSearcher();
+				long version = getVersion(searcher.getIndexReader());
+
+				ScoreDoc[] docs;
+				TopDocs top;
+				if (after != null && Long.parseLong(after[1]) == version && version >= 0) {
+					// resume after the last hit of the previous page
+					ScoreDoc last = new ScoreDoc(Integer.parseInt(after[2]), 
+												Float.parseFloat(after[3]));
+					top = searcher.searchAfter(last, q, PAGING);
+					docs = top.scoreDocs;
+				} else {
+					// index changed, or no cursor: get top hits and skip to offset
+					if (offset > MAX_OFFSET) {
+						throw new WebApplicationException("Cursor expired, index changed", 
+														Response.Status.BAD_REQUEST);
+					}
+					top = searcher.search(q, offset + PAGING);
+					docs = (top.scoreDocs.length > offset) 
+						? Arrays.copyOfRange(top.scoreDocs, offset, top.scoreDocs.length)
+						: new ScoreDoc[0];
+				}
+				total = top.totalHits;
+				for (ScoreDoc doc: docs) {
+					String id = searcher.doc(doc.doc, URI_FIELD).get(SearchFields.URI_FIELD_NAME);
+					hits.add(SearchFields.createResource(id));
+					scores.add(doc.score);
+				}
+				if (docs.length > 0 && offset + docs.length < total) {
+					next = encode(offset + docs.length, version, docs[docs.length - 1]);
+				}
+			} finally {
+				index.endReading();
+			}
+		} catch (IOException ioe) {
+			throw new WebApplicationException(ioe);
+		}
+
+		Model m = new LinkedHashModel();
+		try (RepositoryConnection conn = repo.getConnection()) {
+			for (Resource subj: hits) {
+				Iterations.addAll(conn.getStatements(subj, SKOS.PREF_LABEL, null, false, ctx), m);
+			}
+		} catch (RepositoryException e) {
 			throw new WebApplicationException(e);
 		}
+		IRI graph = QueryHelper.asGraph("/" + vocab + "#hydra");
+		for (int i = 0; i < hits.size(); i++) {
+			m.add(hits.get(i), SCORE, F.createLiteral(scores.get(i)), graph);
+		}
+
+		UriBuilder builder = UriBuilder.fromUri(PREFIX).path(FTS).path(vocab)
+													.queryParam("q", "{q}");
+		hyperControls(m, vocab, UriBuilder.fromUri(builder.buildFromMap(
+						Collections.singletonMap("q", text)).toString()), offset, total, next);
+
+		return QueryHelper.setNamespaces(m);
 	}
 }
@@ -26,40 +26,62 @@
 package be.belgif.dw.ldf.query;
 
 import be.belgif.dw.ldf.App;
+import be.belgif.dw.ldf.helpers.FragmentMetrics;
+import be.belgif.dw.ldf.helpers.FragmentTrace;
+import be.belgif.dw.ldf.helpers.RDFStream;
+import be.belgif.dw.ldf.helpers.SlowFragments;
 import be.belgif.dw.ldf.vocab.Hydra;
+
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 
+import org.eclipse.rdf4j.RDF4JException;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.common.iteration.ConvertingIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
 import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.LinkedHashModel;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.FOAF;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.SD;
 import org.eclipse.rdf4j.model.vocabulary.VOID;
 import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
-import org.eclipse.rdf4j.query.BindingSet;
 
+import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.GraphQuery;
 import org.eclipse.rdf4j.query.MalformedQueryException;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
-import org.eclipse.rdf4j.query.QueryResults;
 import org.eclipse.rdf4j.query.TupleQuery;
 
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Helper class for querying the triple store using Linked Data Fragments.
+ * 
+ * Triple Pattern Fragments are available for all data and for one vocabulary.
+ * Quad Pattern Fragments, on a separate path, have an optional graph 
+ * and include the named graph of each result. 
+ * Quads are only taken from named graphs, not from the default graph.
  *
  * @author Bart.Hanssens
  */
@@ -68,6 +90,7 @@ public class QueryHelperLDF {
 	private final static Logger LOG = (Logger) LoggerFactory.getLogger(QueryHelperLDF.class);
 
 	public final static String LDF = "_ldf";
+	public final static String QPF = "_qpf";
 
 	private final static ValueFactory F = SimpleValueFactory.getInstance();
 
@@ -77,24 +100,19 @@ public class QueryHelperLDF {
 	private final static Value S = F.createLiteral("s");
 	private final static Value P = F.createLiteral("p");
 	private final static Value O = F.createLiteral("o");
+	private final static Value G = F.createLiteral("g");
 
 	private final static BNode LDF_MAP_S = F.createBNode("s");
 	private final static BNode LDF_MAP_P = F.createBNode("p");
 	private final static BNode LDF_MAP_O = F.createBNode("o");
+	private final static BNode LDF_MAP_G = F.createBNode("g");
 
 	private final static String PAGE = "page";
+	private final static String CURSOR = "cursor";
 
 	private final static int PAGING = 100;
 	private final static Value PAGING_VAL = F.createLiteral("100", XMLSchema.INTEGER);
 
-	private final static String Q_COUNT
-			= "SELECT (COUNT(*) AS ?cnt) "
-			+ "WHERE { ?s ?p ?o } ";
-
-	private final static String Q_COUNT_GRAPH
-			= "SELECT (COUNT(*) AS ?cnt) "
-			+ "WHERE { GRAPH ?graph { ?s ?p ?o } } ";
-
 	private final static String Q_LDF
 			= "CONSTRUCT { ?s ?p ?o } "
 			+ "WHERE { ?s ?p ?o } "
@@ -107,6 +125,34 @@ public class QueryHelperLDF {
 			+ //"ORDER BY ?s ?p ?o " +
 			"LIMIT " + PAGING;
 
+	private final static String Q_LDF_QUADS
+			= "SELECT ?s ?p ?o ?graph "
+			+ "WHERE { GRAPH ?graph { ?s ?p ?o } } "
+			+ "LIMIT " + PAGING;
+
+	private static boolean direct = true;
+
+	/**
+	 * Use getStatements instead of SPARQL queries to get fragments.
+	 * 
+	 * @param direct true to use direct evaluation
+	 */
+	public static void setDirect(boolean direct) {
+		QueryHelperLDF.direct = direct;
+	}
+
+	/**
+	 * Check if fragments can be retrieved without SPARQL.
+	 * Only for Sail repositories, remote repositories cannot skip or limit 
+	 * the statements they send.
+	 * 
+	 * @param repo repository
+	 * @return true if direct evaluation is to be used
+	 */
+	public static boolean isDirect(Repository repo) {
+		return direct && (repo instanceof SailRepository);
+	}
+
 	/**
 	 * Convert string into IRI or null
 	 *
@@ -173,22 +219,29 @@ public class QueryHelperLDF {
 	}
 
 	/**
-	 * Hydra search template mappings
+	 * Hydra search template mappings.
+	 * Quad pattern template on all data, or triple pattern template.
 	 *
 	 * @param m triples
 	 * @param graph hydra graph
 	 * @param vocab name of the vocabulary
 	 * @param dataset dataset IRI
+	 * @param quads true for a quad pattern template
 	 */
-	private static void template(Model m, IRI graph, String vocab, IRI dataset) {
-		String path = vocab.isEmpty() ? "" : "/" + vocab;
+	private static void template(Model m, IRI graph, String vocab, IRI dataset, boolean quads) {
+		String path = quads ? QPF + "{?s,p,o,g}" 
+							: LDF + (vocab.isEmpty() ? "" : "/" + vocab) + "{?s,p,o}";
 		// search template
 		m.add(dataset, Hydra.SEARCH, LDF_SEARCH, graph);
-		m.add(LDF_SEARCH, Hydra.TEMPLATE,
-				F.createLiteral(PREFIX + LDF + path + "{?s,p,o}"), graph);
+		m.add(LDF_SEARCH, Hydra.TEMPLATE, F.createLiteral(PREFIX + path), graph);
 		m.add(LDF_SEARCH, Hydra.MAPPING, LDF_MAP_S, graph);
 		m.add(LDF_SEARCH, Hydra.MAPPING, LDF_MAP_P, graph);
 		m.add(LDF_SEARCH, Hydra.MAPPING, LDF_MAP_O, graph);
+		if (quads) {
+			m.add(LDF_SEARCH, Hydra.MAPPING, LDF_MAP_G, graph);
+			m.add(LDF_MAP_G, Hydra.VARIABLE, G, graph);
+			m.add(LDF_MAP_G, Hydra.PROPERTY, SD.GRAPH_PROPERTY, graph);
+		}
 
 		// generic mapping
 		m.add(LDF_MAP_S, Hydra.VARIABLE, S, graph);
@@ -206,19 +259,25 @@ public class QueryHelperLDF {
 	 * @param graph hydra named graph
 	 * @param part page or fragment
 	 * @param builder URI Builder
+	 * @param cursors URI Builder for cursor links
 	 * @param current current page number
 	 * @param count total number of results
 	 * @param offset offset
+	 * @param next continuation token for next page or null
 	 */
 	private static void page(Model m, IRI graph, IRI part, int current, int count,
-			int offset, UriBuilder builder) {
+			int offset, UriBuilder builder, UriBuilder cursors, String next) {
 		// pagination, page count starts at 1		
 
 		if (offset >= PAGING) {
 			URI prevPage = builder.build(current - 1, PAGE);
 			m.add(part, Hydra.PREVIOUS, F.createIRI(prevPage.toString()), graph);
 		}
-		if (offset + PAGING < count) {
+		// prefer cursor, so the next page can resume the scan
+		if (next != null) {
+			URI nextPage = cursors.build(next, CURSOR);
+			m.add(part, Hydra.NEXT, F.createIRI(nextPage.toString()), graph);
+		} else if (offset + PAGING < count) {
 			URI nextPage = builder.build(current + 1, PAGE);
 			m.add(part, Hydra.NEXT, F.createIRI(nextPage.toString()), graph);
 		}
@@ -235,42 +294,55 @@ public class QueryHelperLDF {
 	 * @param offset offset
 	 * @param count total number of triples
 	 * @param isFrag true if fragment was requested (true if page)
+	 * @param cursor continuation token of this page or null
+	 * @param next continuation token of the next page or null
+	 * @param quads true for a quad pattern fragment
 	 */
 	private static void hyperControls(Model m, String vocab, IRI dataset,
-			UriBuilder builder, int offset, int count, boolean isFrag) {
-		IRI graph = QueryHelper.asGraph("/" + vocab + "#hydra");
+			UriBuilder builder, int offset, int count, boolean isFrag, 
+			String cursor, String next, boolean quads) {
+		IRI graph = QueryHelper.asGraph("/" + (quads ? QPF : vocab) + "#hydra");
 		IRI fragment = F.createIRI(builder.build().toString());
 
+		UriBuilder cursors = builder.clone().queryParam(CURSOR, "{cursor}");
 		builder.queryParam(PAGE, "{page}");
 		int current = (offset / PAGING) + 1;
-		IRI page = F.createIRI(builder.build(current, PAGE).toString());
+		IRI page = F.createIRI((cursor != null) 
+								? cursors.build(cursor, CURSOR).toString()
+								: builder.build(current, PAGE).toString());
 
 		m.add(dataset, RDF.TYPE, VOID.DATASET, graph);
 		m.add(dataset, RDF.TYPE, Hydra.COLLECTION, graph);
 		m.add(dataset, VOID.SUBSET, fragment, graph);
 		m.add(fragment, VOID.SUBSET, page, graph);
 
-		template(m, graph, vocab, dataset);
+		template(m, graph, vocab, dataset, quads);
 		meta(m, graph, isFrag ? fragment : page, count);
-		page(m, graph, isFrag ? fragment : page, current, count, offset, builder);
+		page(m, graph, isFrag ? fragment : page, current, count, offset, 
+				builder, cursors, next);
 	}
 
 	/**
 	 * Get fragment / one page of results
 	 *
-	 * @param m triples
 	 * @param conn repository
 	 * @param subj subject IRI
 	 * @param pred predicate IRI
 	 * @param obj object value
 	 * @param graph named graph
 	 * @param offset
+	 * @param quads true to include the named graph of each result
+	 * @return open query result
 	 */
-	private static void getFragment(Model m, RepositoryConnection conn, IRI subj, IRI pred,
-			Value obj, IRI graph, long offset, long count) {
+	private static CloseableIteration<Statement, QueryEvaluationException> getFragment(
+			RepositoryConnection conn, IRI subj, IRI pred,
+			Value obj, IRI graph, long offset, long count, boolean quads) {
 		// nothing (more) to show
 		if ((count <= 0) || (offset >= count)) {
-			return;
+			return new EmptyIteration<>();
+		}
+		if (quads) {
+			return getQuadFragment(conn, subj, pred, obj, graph, offset);
 		}
 
 		String qry = (graph != null) ? Q_LDF_GRAPH : Q_LDF;
@@ -288,22 +360,25 @@ public class QueryHelperLDF {
 		if (graph != null) {
 			gq.setBinding("graph", graph);
 		}
-		m.addAll(QueryResults.asModel(gq.evaluate()));
+		return gq.evaluate();
 	}
 
 	/**
-	 * Count number of results
+	 * Get quad fragment / one page of results using a SPARQL query
 	 *
 	 * @param conn repository
 	 * @param subj subject IRI
 	 * @param pred predicate IRI
 	 * @param obj object value
 	 * @param graph named graph
-	 * @return number of results
+	 * @param offset
+	 * @return open query result
 	 */
-	private static int getCount(RepositoryConnection conn,
-			IRI subj, IRI pred, Value obj, IRI graph) {
-		TupleQuery tq = conn.prepareTupleQuery((graph != null) ? Q_COUNT_GRAPH : Q_COUNT);
+	private static CloseableIteration<Statement, QueryEvaluationException> getQuadFragment(
+			RepositoryConnection conn, IRI subj, IRI pred,
+			Value obj, IRI graph, long offset) {
+		TupleQuery tq = conn.prepareTupleQuery(Q_LDF_QUADS + " OFFSET " + offset);
+
 		if (subj != null) {
 			tq.setBinding("s", subj);
 		}
@@ -316,9 +391,117 @@ public class QueryHelperLDF {
 		if (graph != null) {
 			tq.setBinding("graph", graph);
 		}
-		BindingSet res = QueryResults.singleResult(tq.evaluate());
-		String val = res.getValue("cnt").stringValue();
-		return Integer.valueOf(val);
+		return new ConvertingIteration<BindingSet, Statement, QueryEvaluationException>(
+															tq.evaluate()) {
+			@Override
+			protected Statement convert(BindingSet bs) {
+				return F.createStatement((Resource) bs.getValue("s"), 
+						(IRI) bs.getValue("p"), bs.getValue("o"), 
+						(Resource) bs.getValue("graph"));
+			}
+		};
+	}
+
+	/**
+	 * Open a new scan on a triple pattern, positioned at an offset
+	 * 
+	 * @param repo repository
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param offset number of statements to skip
+	 * @param last last statement of previous page or null
+	 * @param named true to skip the default graph
+	 * @return scan
+	 */
+	private static CursorCache.Scan openScan(Repository repo, IRI subj, IRI pred,
+			Value obj, IRI graph, long offset, Statement last, boolean named) {
+		RepositoryConnection conn = repo.getConnection();
+		RepositoryResult<Statement> res = (graph != null) 
+											? conn.getStatements(subj, pred, obj, graph)
+											: conn.getStatements(subj, pred, obj);
+		CursorCache.Scan scan = new CursorCache.Scan(conn, res, named);
+
+		// scan is gone, find the position again
+		Statement prev = null;
+		while (scan.getOffset() < offset && scan.hasNext()) {
+			prev = scan.next();
+		}
+		if (last != null && (prev == null 
+				|| !prev.getSubject().equals(last.getSubject())
+				|| !prev.getPredicate().equals(last.getPredicate())
+				|| !prev.getObject().equals(last.getObject()))) {
+			LOG.info("Store changed, cursor position may not be accurate");
+		}
+		return scan;
+	}
+
+	/**
+	 * Get fragment / one page of results by seeking in the index, or by resuming or starting a scan.
+	 * 
+	 * Unlike an OFFSET query, the cost of getting a page does not depend on 
+	 * the number of the page, as long as the index can be used
+	 * or the scan of the previous page is still parked.
+	 *
+	 * @param frag list of triples of this page
+	 * @param repo repository
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param key pattern, used as cache key
+	 * @param cursor continuation token or null for first page
+	 * @param offset
+	 * @param count
+	 * @param quads true to include the named graph of each result
+	 * @param trace request trace
+	 * @return continuation token for next page or null
+	 */
+	private static String getFragmentScan(List<Statement> frag, Repository repo, IRI subj, IRI pred,
+			Value obj, IRI graph, String key, String cursor, long offset, long count, 
+			boolean quads, FragmentTrace trace) {
+		// nothing (more) to show
+		if ((count <= 0) || (offset >= count)) {
+			return null;
+		}
+
+		Statement last = (cursor != null) ? CursorCache.getLast(cursor) : null;
+
+		// restart the range at the last statement sent, one extra to check for more
+		List<Statement> seek = IndexSeek.seek(subj, pred, obj, graph, quads, last, PAGING + 1);
+		if (seek != null) {
+			trace.addPlan((last != null) ? "index seek" : "index range");
+			for (Statement st: seek.subList(0, Math.min(PAGING, seek.size()))) {
+				frag.add(quads ? st 
+						: F.createStatement(st.getSubject(), st.getPredicate(), st.getObject()));
+			}
+			return (seek.size() > PAGING) 
+					? CursorCache.encode(offset + PAGING, seek.get(PAGING - 1)) : null;
+		}
+
+		CursorCache.Scan scan = (cursor != null) ? CursorCache.take(key + cursor) : null;
+		if (scan == null) {
+			scan = openScan(repo, subj, pred, obj, graph, offset, last, quads);
+			trace.addPlan((offset > 0) ? "scan skip " + offset : "scan");
+		} else {
+			trace.addPlan("scan resumed");
+		}
+
+		Statement st = null;
+		for (int i = 0; i < PAGING && scan.hasNext(); i++) {
+			st = scan.next();
+			frag.add(quads ? st 
+						: F.createStatement(st.getSubject(), st.getPredicate(), st.getObject()));
+		}
+		if (st == null || !scan.hasNext()) {
+			scan.close();
+			return null;
+		}
+
+		String next = CursorCache.encode(scan.getOffset(), st);
+		CursorCache.park(key + next, scan);
+		return next;
 	}
 
 	/**
@@ -334,22 +517,60 @@ public class QueryHelperLDF {
 	}
 
 	/**
-	 * Get linked data fragment
+	 * Get linked data fragment, on all data or on one vocabulary
+	 *
+	 * @param repo RDF store
+	 * @param s subject to search for or null
+	 * @param p predicate to search for or null
+	 * @param o object to search for or null
+	 * @param vocab named graph or empty string for all data
+	 * @param page page number
+	 * @param cursor continuation token
+	 * @return RDF stream
+	 */
+	public static RDFStream getLDF(Repository repo, String s, String p, String o,
+			String vocab, String page, String cursor) {
+		return fragment(repo, s, p, o, null, vocab, false, page, cursor);
+	}
+
+	/**
+	 * Get quad pattern fragment, on the named graphs
+	 *
+	 * @param repo RDF store
+	 * @param s subject to search for or null
+	 * @param p predicate to search for or null
+	 * @param o object to search for or null
+	 * @param g named graph to search for or null
+	 * @param page page number
+	 * @param cursor continuation token
+	 * @return RDF stream
+	 */
+	public static RDFStream getQPF(Repository repo, String s, String p, String o, String g,
+			String page, String cursor) {
+		return fragment(repo, s, p, o, g, "", true, page, cursor);
+	}
+
+	/**
+	 * Get triple or quad pattern fragment
 	 *
 	 * @param repo RDF store
 	 * @param s subject to search for or null
 	 * @param p predicate to search for or null
 	 * @param o object to search for or null
-	 * @param vocab named graph
+	 * @param g graph to search for or null, only used for quads
+	 * @param vocab named graph or empty string
+	 * @param quads true for quads, only from named graphs
 	 * @param page page number
-	 * @return RDF model
+	 * @param cursor continuation token
+	 * @return RDF stream
 	 */
-	public static Model getLDF(Repository repo, String s, String p, String o,
-			String vocab, String page) {
-		boolean isFrag = (page == null || page.isEmpty());
+	private static RDFStream fragment(Repository repo, String s, String p, String o, 
+			String g, String vocab, boolean quads, String page, String cursor) {
+		boolean isCursor = (cursor != null && !cursor.isEmpty());
+		boolean isFrag = !isCursor && (page == null || page.isEmpty());
 
 		// check parameters
-		int pageVal = isFrag ? 1 : Integer.valueOf(page);
+		int pageVal = (isFrag || isCursor) ? 1 : Integer.valueOf(page);
 		if (pageVal < 1) {
 			throw new WebApplicationException("Invalid (zero or negative) page number");
 		}
@@ -357,8 +578,10 @@ public class QueryHelperLDF {
 		IRI subj = (s != null) ? createIRI(s) : null;
 		IRI pred = (p != null) ? createIRI(p) : null;
 		Value obj = (o != null) ? createLiteralOrUri(o) : null;
+		IRI ctx = (quads && g != null) ? createIRI(g) : null;
 
-		UriBuilder builder = UriBuilder.fromUri(PREFIX).path(LDF).path(vocab);
+		UriBuilder builder = quads ? UriBuilder.fromUri(PREFIX).path(QPF)
+								: UriBuilder.fromUri(PREFIX).path(LDF).path(vocab);
 		if (s != null) {
 			builder = builder.queryParam("s", s);
 		}
@@ -368,23 +591,106 @@ public class QueryHelperLDF {
 		if (o != null) {
 			builder = builder.queryParam("o", o);
 		}
+		if (quads && g != null) {
+			builder = builder.queryParam("g", g);
+		}
 
-		int offset = (pageVal - 1) * PAGING;
+		int offset;
+		try {
+			long off = isCursor ? CursorCache.getOffset(cursor) : (pageVal - 1L) * PAGING;
+			if (off > Integer.MAX_VALUE - PAGING) {
+				throw new IllegalArgumentException("Offset too large");
+			}
+			offset = (int) off;
+			if (isCursor) {
+				CursorCache.getLast(cursor);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new WebApplicationException(isCursor ? "Invalid cursor" : "Invalid page number", 
+											Response.Status.BAD_REQUEST);
+		}
+		String key = builder.build().toString();
 
 		// speedup: vocabularies are stored in separate graphs
-		IRI graph = (!vocab.isEmpty()) ? QueryHelper.asGraph(vocab) : null;
+		IRI graph = (!vocab.isEmpty()) ? QueryHelper.asGraph(vocab) : ctx;
 		IRI dataset = QueryHelper.asDataset(vocab);
 
-		try (RepositoryConnection conn = repo.getConnection()) {
-			int count = getCount(conn, subj, pred, obj, graph);
+		// compiled snapshot: exact count and direct access to any page
+		FragmentIndex.Snapshot snap = (graph != null) 
+									? FragmentIndex.get(graph.stringValue()) : null;
+		String name = (ctx != null) ? ctx.stringValue() : vocab;
+		FragmentTrace trace = new FragmentTrace(s, p, o, name, offset / PAGING + 1,
+			FragmentMetrics.get(subj != null, pred != null, obj != null, graph != null));
+		if (snap != null) {
+			trace.addPlan("snapshot");
+			long start = System.nanoTime();
+			int count = snap.count(subj, pred, obj);
+			trace.count(System.nanoTime() - start, count);
+
+			start = System.nanoTime();
+			List<Statement> l = snap.get(subj, pred, obj, offset, PAGING);
+			if (quads) {
+				l.replaceAll(st -> F.createStatement(st.getSubject(), st.getPredicate(), 
+														st.getObject(), graph));
+			}
+			trace.fetch(System.nanoTime() - start);
 
+			start = System.nanoTime();
 			Model m = new LinkedHashModel();
+			hyperControls(m, vocab, dataset, builder, offset, count, isFrag, 
+							isCursor ? cursor : null, null, quads);
+			trace.controls(System.nanoTime() - start);
+
+			RDFStream stream = new RDFStream(setNamespaces(m), 
+								new CloseableIteratorIteration<>(l.iterator()), null);
+			stream.setTrace(trace);
+			return stream;
+		}
 
-			hyperControls(m, vocab, dataset, builder, offset, count, isFrag);
-			getFragment(m, conn, subj, pred, obj, graph, offset, count);
+		RepositoryConnection conn = null;
+		try {
+			conn = repo.getConnection();
+			// the SPARQL engine picks its own index
+			String index = SlowFragments.getIndex(subj != null, pred != null, 
+												obj != null, graph != null);
+			trace.addPlan(isDirect(repo) ? index : index + " (estimate)");
+			trace.addPlan("count " + TripleCounter.getMode().toString().toLowerCase());
+			long start = System.nanoTime();
+			// quad fragments only contain triples in named graphs
+			int count = TripleCounter.count(conn, subj, pred, obj, graph, quads);
+			trace.count(System.nanoTime() - start, count);
 
-			return setNamespaces(m);
+			Model m = new LinkedHashModel();
+			CloseableIteration<Statement, ? extends RDF4JException> frag;
+
+			// avoid parsing a SPARQL query for a single triple pattern,
+			// and resume the scan of the previous page if possible.
+			// SPARQL results are only fetched while serializing
+			start = System.nanoTime();
+			String next = null;
+			if (isDirect(repo)) {
+				List<Statement> l = new ArrayList<>(PAGING);
+				next = getFragmentScan(l, repo, subj, pred, obj, graph, key,
+										isCursor ? cursor : null, offset, count, quads, trace);
+				frag = new CloseableIteratorIteration<>(l.iterator());
+			} else {
+				trace.addPlan("sparql offset " + offset);
+				frag = getFragment(conn, subj, pred, obj, graph, offset, count, quads);
+			}
+			trace.fetch(System.nanoTime() - start);
+
+			start = System.nanoTime();
+			hyperControls(m, vocab, dataset, builder, offset, count, isFrag, 
+							isCursor ? cursor : null, next, quads);
+			trace.controls(System.nanoTime() - start);
+
+			RDFStream stream = new RDFStream(setNamespaces(m), frag, conn);
+			stream.setTrace(trace);
+			return stream;
 		} catch (RepositoryException | MalformedQueryException | QueryEvaluationException e) {
+			if (conn != null) {
+				conn.close();
+			}
 			throw new WebApplicationException(e);
 		}
 	}
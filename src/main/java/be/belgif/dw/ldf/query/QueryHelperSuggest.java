@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.query;
+
+import be.belgif.dw.ldf.App;
+import be.belgif.dw.ldf.query.LabelIndex.Suggestion;
+import be.belgif.dw.ldf.vocab.Hydra;
+
+import java.util.List;
+import java.util.Locale;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.VOID;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+
+/**
+ * Helper class for autocomplete suggestions, using the in-memory label index.
+ * 
+ * @author Bart.Hanssens
+ */
+public class QueryHelperSuggest {
+	public final static String SUGGEST = "_suggest";
+
+	private final static ValueFactory F = SimpleValueFactory.getInstance();
+
+	private final static String PREFIX = App.getPrefix();
+	private final static BNode SUGGEST_SEARCH = F.createBNode("suggest");
+	private final static BNode SUGGEST_MAP_Q = F.createBNode("q");
+	private final static Value Q = F.createLiteral("q");
+
+	private final static int DEFAULT_MAX = 10;
+	private final static int MAX = 50;
+
+	/**
+	 * Add hypermedia controls
+	 * 
+	 * @param m model
+	 * @param vocab vocabulary name
+	 */
+	private static void hyperControls(Model m, String vocab) {
+		IRI graph = QueryHelper.asGraph("/" + vocab + "#hydra");
+		IRI dataset = QueryHelper.asDataset(vocab);
+
+		m.add(dataset, RDF.TYPE, VOID.DATASET, graph);
+		m.add(dataset, Hydra.SEARCH, SUGGEST_SEARCH, graph);
+		m.add(SUGGEST_SEARCH, Hydra.TEMPLATE, 
+				F.createLiteral(PREFIX + SUGGEST + "/" + vocab + "{?q}"), graph);
+		m.add(SUGGEST_SEARCH, Hydra.MAPPING, SUGGEST_MAP_Q, graph);
+		m.add(SUGGEST_MAP_Q, Hydra.VARIABLE, Q, graph);
+		m.add(SUGGEST_MAP_Q, Hydra.PROPERTY, Hydra.FREETEXT, graph);
+	}
+
+	/**
+	 * Get the labels starting with the text typed so far, best matches first
+	 * 
+	 * @param idx label index of the vocabulary
+	 * @param text text typed so far
+	 * @param vocab vocabulary name
+	 * @param lang language code or null
+	 * @param max maximum number of results (capped), or null
+	 * @return RDF model
+	 */
+	public static Model getSuggestions(LabelIndex.Index idx, String text, String vocab, 
+										String lang, String max) {
+		if (text == null || text.trim().isEmpty()) {
+			throw new WebApplicationException("Missing search text", 
+											Response.Status.BAD_REQUEST);
+		}
+		int k = DEFAULT_MAX;
+		if (max != null && !max.isEmpty()) {
+			try {
+				k = Integer.parseInt(max);
+			} catch (NumberFormatException nfe) {
+				throw new WebApplicationException("Invalid number", Response.Status.BAD_REQUEST);
+			}
+			if (k < 1) {
+				throw new WebApplicationException("Number out of range", 
+											Response.Status.BAD_REQUEST);
+			}
+			k = Math.min(k, MAX);
+		}
+		String l = (lang != null && !lang.isEmpty()) ? lang.toLowerCase(Locale.ROOT) : null;
+		IRI ctx = QueryHelper.asGraph(vocab);
+
+		Model m = new LinkedHashModel();
+		List<Suggestion> res = idx.suggest(text, l, k);
+		for (Suggestion s: res) {
+			m.add(s.getSubject(), s.getPredicate(), s.getLabel(), ctx);
+		}
+		hyperControls(m, vocab);
+
+		return QueryHelper.setNamespaces(m);
+	}
+}
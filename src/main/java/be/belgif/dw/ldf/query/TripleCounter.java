@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.query;
+
+import be.belgif.dw.ldf.helpers.StoreVersion;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.query.TupleQuery;
+
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Count the number of results of a triple pattern, for Hydra total items.
+ * 
+ * The TPF spec allows an estimate, so instead of counting every time,
+ * the count can be cached until the store changes, or estimated based upon 
+ * statistics of the store.
+ * When a named graph changes, only its cached counts and statistics are updated.
+ * 
+ * @author Bart.Hanssens
+ */
+public class TripleCounter {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(TripleCounter.class);
+
+	/**
+	 * Counting mode
+	 */
+	public enum Mode { 
+		/** always count */
+		EXACT, 
+		/** count once, until the store changes */
+		CACHED, 
+		/** use statistics, count when there are few results */
+		ESTIMATED
+	}
+
+	private final static String Q_COUNT
+			= "SELECT (COUNT(*) AS ?cnt) "
+			+ "WHERE { ?s ?p ?o } ";
+
+	private final static String Q_COUNT_GRAPH
+			= "SELECT (COUNT(*) AS ?cnt) "
+			+ "WHERE { GRAPH ?graph { ?s ?p ?o } } ";
+
+	private final static int MAX_CACHED = 10000;
+
+	private final static ValueFactory F = SimpleValueFactory.getInstance();
+
+	private static Mode mode = Mode.EXACT;
+	private static int threshold = 10000;
+	private static Repository repo;
+
+	// access order, least recently used count first
+	private final static Map<String, Integer> CACHE = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	private static volatile Statistics stats = null;
+	private final static AtomicBoolean BUILDING = new AtomicBoolean(false);
+	// named graphs changed since the statistics were built
+	private final static Set<String> STALE = ConcurrentHashMap.newKeySet();
+	private final static ExecutorService BUILDER = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "triplecounter-stats");
+		t.setDaemon(true);
+		return t;
+	});
+	// changes when the store changes, to avoid storing outdated results
+	private final static AtomicLong GENERATION = new AtomicLong();
+
+	/**
+	 * Number of triples per graph and per predicate.
+	 * Statistics are never modified, an updated copy is created instead.
+	 */
+	private static class Statistics {
+		private final Map<Resource, Long> graphs = new HashMap<>();
+		private final Map<IRI, Long> preds = new HashMap<>();
+		private final Map<Resource, Map<IRI, Long>> graphPreds;
+		private long total = 0;
+
+		/**
+		 * Add statement to number of triples per graph and per predicate
+		 * 
+		 * @param graphPreds triples per graph and per predicate
+		 * @param st statement
+		 */
+		private static void add(Map<Resource, Map<IRI, Long>> graphPreds, Statement st) {
+			graphPreds.computeIfAbsent(st.getContext(), k -> new HashMap<>())
+						.merge(st.getPredicate(), 1L, Long::sum);
+		}
+
+		/**
+		 * Create a copy with updated statistics for one graph
+		 * 
+		 * @param graph named graph
+		 * @param counts triples per predicate in that graph
+		 * @return new statistics
+		 */
+		private Statistics replace(Resource graph, Map<IRI, Long> counts) {
+			Map<Resource, Map<IRI, Long>> m = new HashMap<>(graphPreds);
+			m.remove(graph);
+			if (!counts.isEmpty()) {
+				m.put(graph, counts);
+			}
+			return new Statistics(m);
+		}
+
+		/**
+		 * Estimate the number of results
+		 * 
+		 * @param pred predicate or null
+		 * @param graph named graph or null
+		 * @param named true to only include named graphs when graph is null
+		 * @return number of results
+		 */
+		private long get(IRI pred, IRI graph, boolean named) {
+			if (graph == null) {
+				long all = (pred == null) ? total : preds.getOrDefault(pred, 0L);
+				return named ? all - get(pred, null) : all;
+			}
+			return get(pred, (Resource) graph);
+		}
+
+		/**
+		 * Get number of triples in one graph
+		 * 
+		 * @param pred predicate or null
+		 * @param graph graph or null for the default graph
+		 * @return number of results
+		 */
+		private long get(IRI pred, Resource graph) {
+			if (pred == null) {
+				return graphs.getOrDefault(graph, 0L);
+			}
+			Map<IRI, Long> m = graphPreds.get(graph);
+			return (m == null) ? 0 : m.getOrDefault(pred, 0L);
+		}
+
+		/**
+		 * Constructor
+		 * 
+		 * @param graphPreds triples per graph and per predicate
+		 */
+		private Statistics(Map<Resource, Map<IRI, Long>> graphPreds) {
+			this.graphPreds = graphPreds;
+			graphPreds.forEach((graph, m) -> m.forEach((pred, cnt) -> {
+				total += cnt;
+				graphs.merge(graph, cnt, Long::sum);
+				preds.merge(pred, cnt, Long::sum);
+			}));
+		}
+	}
+
+	/**
+	 * Set repository and counting mode
+	 * 
+	 * @param repo RDF store
+	 * @param mode counting mode
+	 * @param threshold estimates below this number will be counted exactly
+	 */
+	public static void configure(Repository repo, Mode mode, int threshold) {
+		TripleCounter.repo = repo;
+		TripleCounter.mode = mode;
+		TripleCounter.threshold = threshold;
+	}
+
+	/**
+	 * Forget cached counts and statistics, e.g. when the contents of the store changed
+	 */
+	public static void clear() {
+		synchronized (CACHE) {
+			GENERATION.incrementAndGet();
+			CACHE.clear();
+		}
+		stats = null;
+	}
+
+	/**
+	 * Forget cached counts of a named graph, and update its statistics.
+	 * During a series of commits, e.g. a bulk load, the old statistics are used 
+	 * until the last commit.
+	 * 
+	 * @param graph named graph or null if (possibly) all graphs were changed
+	 * @param last true if this is the last commit of a series
+	 */
+	public static void invalidate(String graph, boolean last) {
+		if (graph == null) {
+			clear();
+			return;
+		}
+		// counts of all graphs include this graph
+		String prefix = NTriplesUtil.toNTriplesString(F.createIRI(graph)) + "\n";
+		synchronized (CACHE) {
+			GENERATION.incrementAndGet();
+			CACHE.keySet().removeIf(k -> k.startsWith(prefix) || k.startsWith("\n"));
+		}
+		STALE.add(graph);
+		if (last && stats != null) {
+			BUILDER.execute(TripleCounter::updateStatistics);
+		}
+	}
+
+	/**
+	 * Get count cache key
+	 * 
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param named only count triples in named graphs
+	 * @return key
+	 */
+	private static String key(IRI subj, IRI pred, Value obj, IRI graph, boolean named) {
+		// graph first, so the counts of a graph can be removed
+		StringBuilder buf = new StringBuilder();
+		if (graph != null) {
+			buf.append(NTriplesUtil.toNTriplesString(graph));
+		}
+		buf.append('\n');
+		for (Value v: new Value[] { subj, pred, obj }) {
+			if (v != null) {
+				buf.append(NTriplesUtil.toNTriplesString(v));
+			}
+			buf.append(' ');
+		}
+		return named ? buf.append('g').toString() : buf.toString();
+	}
+
+	/**
+	 * Build statistics in the background.
+	 * Counts are cached and counted exactly until the statistics are available.
+	 */
+	private static void buildStatistics() {
+		if (repo == null || !BUILDING.compareAndSet(false, true)) {
+			return;
+		}
+		BUILDER.execute(() -> {
+			LOG.info("Building statistics");
+			long version = StoreVersion.getVersion(null);
+			STALE.clear();
+			Map<Resource, Map<IRI, Long>> m = new HashMap<>();
+			try (RepositoryConnection conn = repo.getConnection();
+				RepositoryResult<Statement> res = conn.getStatements(null, null, null)) {
+				while (res.hasNext()) {
+					Statistics.add(m, res.next());
+				}
+				// only keep statistics if graphs changed while building can be updated
+				if (StoreVersion.getChangedSince(version) != null) {
+					stats = new Statistics(m);
+					updateStatistics();
+				}
+				LOG.info("Done, {} triples", (stats != null) ? stats.total : 0);
+			} catch (RepositoryException e) {
+				LOG.error("Could not build statistics", e);
+			} finally {
+				BUILDING.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Update the statistics of changed named graphs only
+	 */
+	private static void updateStatistics() {
+		if (STALE.isEmpty()) {
+			return;
+		}
+		try (RepositoryConnection conn = repo.getConnection()) {
+			for (String graph: STALE) {
+				STALE.remove(graph);
+				IRI ctx = F.createIRI(graph);
+				Map<Resource, Map<IRI, Long>> m = new HashMap<>();
+				try (RepositoryResult<Statement> res = conn.getStatements(null, null, null, ctx)) {
+					while (res.hasNext()) {
+						Statistics.add(m, res.next());
+					}
+				}
+				Statistics s = stats;
+				if (s != null) {
+					stats = s.replace(ctx, m.getOrDefault(ctx, new HashMap<>()));
+				}
+				LOG.info("Updated statistics of {}", graph);
+			}
+		} catch (RepositoryException e) {
+			LOG.error("Could not update statistics", e);
+		}
+	}
+
+	/**
+	 * Count number of results by iterating over the statements
+	 *
+	 * @param conn repository
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param named only count triples in named graphs
+	 * @return number of results
+	 */
+	private static int direct(RepositoryConnection conn,
+			IRI subj, IRI pred, Value obj, IRI graph, boolean named) {
+		int count = 0;
+		try (RepositoryResult<Statement> res = (graph != null)
+									? conn.getStatements(subj, pred, obj, graph)
+									: conn.getStatements(subj, pred, obj)) {
+			while (res.hasNext()) {
+				if (res.next().getContext() != null || !named) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Count number of results
+	 *
+	 * @param conn repository
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param named only count triples in named graphs
+	 * @return number of results
+	 */
+	private static int exact(RepositoryConnection conn,
+			IRI subj, IRI pred, Value obj, IRI graph, boolean named) {
+		if (QueryHelperLDF.isDirect(conn.getRepository())) {
+			return direct(conn, subj, pred, obj, graph, named);
+		}
+		TupleQuery tq = conn.prepareTupleQuery((graph != null || named) 
+														? Q_COUNT_GRAPH : Q_COUNT);
+		if (subj != null) {
+			tq.setBinding("s", subj);
+		}
+		if (pred != null) {
+			tq.setBinding("p", pred);
+		}
+		if (obj != null) {
+			tq.setBinding("o", obj);
+		}
+		if (graph != null) {
+			tq.setBinding("graph", graph);
+		}
+		BindingSet res = QueryResults.singleResult(tq.evaluate());
+		String val = res.getValue("cnt").stringValue();
+		return Integer.valueOf(val);
+	}
+
+	/**
+	 * Count number of results, or get them from the cache
+	 *
+	 * @param conn repository
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param named only count triples in named graphs
+	 * @return number of results
+	 */
+	private static int cached(RepositoryConnection conn,
+			IRI subj, IRI pred, Value obj, IRI graph, boolean named) {
+		String key = key(subj, pred, obj, graph, named);
+		long gen;
+		synchronized (CACHE) {
+			Integer count = CACHE.get(key);
+			if (count != null) {
+				return count;
+			}
+			gen = GENERATION.get();
+		}
+		int count = exact(conn, subj, pred, obj, graph, named);
+		synchronized (CACHE) {
+			if (gen == GENERATION.get()) {
+				CACHE.put(key, count);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Estimate number of results, using exact count for small results.
+	 * Only unbound and predicate-only patterns can be estimated, 
+	 * other patterns are usually small or selective and will be cached.
+	 * 
+	 * @param conn repository
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param named only count triples in named graphs
+	 * @return number of results
+	 */
+	private static int estimated(RepositoryConnection conn,
+			IRI subj, IRI pred, Value obj, IRI graph, boolean named) {
+		Statistics s = stats;
+		if (s == null) {
+			buildStatistics();
+		}
+		if (s == null || subj != null || obj != null) {
+			return cached(conn, subj, pred, obj, graph, named);
+		}
+		long est = s.get(pred, graph, named);
+		if (est < threshold) {
+			return cached(conn, subj, pred, obj, graph, named);
+		}
+		return (int) Math.min(est, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get counting mode
+	 * 
+	 * @return mode
+	 */
+	public static Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Get (estimated) number of results, depending on the mode
+	 * 
+	 * @param conn repository
+	 * @param subj subject IRI
+	 * @param pred predicate IRI
+	 * @param obj object value
+	 * @param graph named graph
+	 * @param named only count triples in named graphs
+	 * @return number of results
+	 */
+	public static int count(RepositoryConnection conn,
+			IRI subj, IRI pred, Value obj, IRI graph, boolean named) {
+		switch(mode) {
+			case CACHED: return cached(conn, subj, pred, obj, graph, named);
+			case ESTIMATED: return estimated(conn, subj, pred, obj, graph, named);
+			default: return exact(conn, subj, pred, obj, graph, named);
+		}
+	}
+}
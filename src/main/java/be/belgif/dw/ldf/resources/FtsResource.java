@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.resources;
+
+import be.belgif.dw.ldf.helpers.Cached;
+import be.belgif.dw.ldf.helpers.Limited;
+import be.belgif.dw.ldf.helpers.RDFMediaType;
+import be.belgif.dw.ldf.query.QueryHelper;
+import be.belgif.dw.ldf.query.QueryHelperFTS;
+
+import com.codahale.metrics.annotation.ExceptionMetered;
+
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
+
+import org.eclipse.rdf4j.repository.Repository;
+
+/**
+ * Full text search on the labels of a vocabulary, with paging.
+ * 
+ * @author Bart.Hanssens
+ */
+@Path("/" + QueryHelperFTS.FTS)
+public class FtsResource extends RdfResource {
+	private final static List<Variant> VARIANTS = Variant.mediaTypes(
+										MediaType.valueOf(RDFMediaType.TRIG),
+										MediaType.valueOf(RDFMediaType.JSONLD),
+										MediaType.valueOf(RDFMediaType.NQUADS),
+										MediaType.valueOf(RDFMediaType.BINARY)).build();
+
+	@GET
+	@Path("/{vocab}")
+	@Produces({RDFMediaType.TRIG, RDFMediaType.JSONLD, 
+				RDFMediaType.NQUADS, RDFMediaType.BINARY})
+	@ExceptionMetered
+	@Limited
+	@Cached
+	public Response search(@Context Request req, @PathParam("vocab") String vocab,
+						@QueryParam("q") String text,
+						@QueryParam("page") String page,
+						@QueryParam("cursor") String cursor) {
+		return versioned(req, VARIANTS, QueryHelper.asGraph(vocab).stringValue(), 
+				() -> QueryHelperFTS.getFTS(getRepository(), text, vocab, page, cursor));
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param repo RDF triple store
+	 */
+	public FtsResource(Repository repo) {
+		super(repo);
+	}
+}
@@ -25,34 +25,73 @@
  */
 package be.belgif.dw.ldf.resources;
 
+import be.belgif.dw.ldf.helpers.Cached;
+import be.belgif.dw.ldf.helpers.Limited;
 import be.belgif.dw.ldf.helpers.RDFMediaType;
+import be.belgif.dw.ldf.query.QueryHelper;
 import be.belgif.dw.ldf.query.QueryHelperLDF;
 
 import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Timed;
+
+import java.util.List;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
 
-import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.repository.Repository;
 
 /**
- * Linked Data Fragments search.
+ * Linked Data Fragments search: triple patterns on all data or on one vocabulary.
  * 
  * @author Bart.Hanssens
  */
 @Path("/_ldf")
 public class LdfResource extends RdfResource{
+	private final static List<Variant> VARIANTS = Variant.mediaTypes(
+										MediaType.valueOf(RDFMediaType.TRIG),
+										MediaType.valueOf(RDFMediaType.JSONLD),
+										MediaType.valueOf(RDFMediaType.NQUADS),
+										MediaType.valueOf(RDFMediaType.BINARY)).build();
+
+	@GET
+	@Produces({RDFMediaType.TRIG, RDFMediaType.JSONLD, 
+				RDFMediaType.NQUADS, RDFMediaType.BINARY})
+	@ExceptionMetered
+	@Limited
+	@Timed
+	@Cached
+	public Response searchAll(@Context Request req, @QueryParam("s") String s, 
+						@QueryParam("p") String p, @QueryParam("o") String o,
+						@QueryParam("page") String page,
+						@QueryParam("cursor") String cursor) {
+		return versioned(req, VARIANTS, null, 
+				() -> QueryHelperLDF.getLDF(getRepository(), s, p, o, "", page, cursor));
+	}
+
 	@GET
-	@Produces({RDFMediaType.TRIG, RDFMediaType.JSONLD})
+	@Path("/{vocab}")
+	@Produces({RDFMediaType.TRIG, RDFMediaType.JSONLD, 
+				RDFMediaType.NQUADS, RDFMediaType.BINARY})
 	@ExceptionMetered
-	public Model searchAll(@QueryParam("s") String s, 
+	@Limited
+	@Timed
+	@Cached
+	public Response searchVocab(@Context Request req, @PathParam("vocab") String vocab,
+						@QueryParam("s") String s, 
 						@QueryParam("p") String p, @QueryParam("o") String o,
-						@QueryParam("page") String page) {
-		return QueryHelperLDF.getLDF(getRepository(), s, p, o, "", page);
+						@QueryParam("page") String page,
+						@QueryParam("cursor") String cursor) {
+		return versioned(req, VARIANTS, QueryHelper.asGraph(vocab).stringValue(), 
+				() -> QueryHelperLDF.getLDF(getRepository(), s, p, o, vocab, page, cursor));
 	}
 
 	/**
@@ -25,8 +25,26 @@
  */
 package be.belgif.dw.ldf.resources;
 
+import be.belgif.dw.ldf.helpers.Compression;
+import be.belgif.dw.ldf.helpers.RDFStream;
+import be.belgif.dw.ldf.helpers.StoreVersion;
+
+import java.util.Date;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
+
 import org.eclipse.rdf4j.repository.Repository;
 
+import org.glassfish.jersey.server.CloseableService;
+
 
 /**
  * Abstract resource querying the RDF triple store.
@@ -36,6 +54,12 @@ import org.eclipse.rdf4j.repository.Repository;
 
 public abstract class RdfResource {
 	private final Repository repo;
+
+	@Context
+	private HttpHeaders headers;
+
+	@Context
+	private CloseableService closer;
 	
 	/**
 	 * Get repository
@@ -46,6 +70,69 @@ public abstract class RdfResource {
 		return repo;
 	}
 
+	/**
+	 * Get response with ETag and Last-Modified headers,
+	 * or "not modified" if the client already has the current version.
+	 * The store is only queried when needed.
+	 * 
+	 * @param req request
+	 * @param variants media types the resource can produce
+	 * @param graph named graph or null for the whole store
+	 * @param entity supplier of the result
+	 * @return response
+	 */
+	protected Response versioned(Request req, List<Variant> variants, String graph,
+									Supplier<Object> entity) {
+		return versioned(req, variants, StoreVersion.getVersion(graph), 
+							StoreVersion.getLastModified(graph), entity);
+	}
+
+	/**
+	 * Get result, and make sure a stream of results is closed when the request ends,
+	 * even when it is never written (e.g. HEAD request, client disconnect).
+	 * 
+	 * @param entity supplier of the result
+	 * @return result
+	 * @throws WebApplicationException not found if there are no results
+	 */
+	private Object get(Supplier<Object> entity) {
+		Object obj = entity.get();
+		if (obj instanceof RDFStream) {
+			RDFStream stream = (RDFStream) obj;
+			closer.add(stream);
+			if (stream.isEmpty()) {
+				throw new WebApplicationException(Response.Status.NOT_FOUND);
+			}
+		}
+		return obj;
+	}
+
+	/**
+	 * Get response with ETag and Last-Modified headers of a given version,
+	 * e.g. the version an in-memory index was built from.
+	 * 
+	 * @param req request
+	 * @param variants media types the resource can produce
+	 * @param version version of the data
+	 * @param date last modification of the data
+	 * @param entity supplier of the result
+	 * @return response
+	 */
+	protected Response versioned(Request req, List<Variant> variants, long version, 
+									Date date, Supplier<Object> entity) {
+		Variant v = req.selectVariant(variants);
+		if (v == null) {
+			return Response.notAcceptable(variants).build();
+		}
+		String enc = Compression.negotiate(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+		EntityTag etag = StoreVersion.getETag(version, v.getMediaType(), enc);
+
+		Response.ResponseBuilder rb = req.evaluatePreconditions(date, etag);
+		if (rb == null) {
+			rb = Response.ok(get(entity), v);
+		}
+		return rb.tag(etag).lastModified(date).header(HttpHeaders.VARY, Compression.VARY).build();
+	}
 	
 	/**
 	 * Constructor
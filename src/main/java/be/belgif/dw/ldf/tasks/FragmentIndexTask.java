@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.tasks;
+
+import be.belgif.dw.ldf.query.FragmentIndex;
+
+import com.codahale.metrics.annotation.Timed;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.PrintWriter;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.eclipse.rdf4j.repository.Repository;
+
+/**
+ * Compile or remove the read-only fragment snapshot of a named graph
+ *
+ * @author Bart.Hanssens
+ */
+public class FragmentIndexTask extends Task {
+	private final Repository repo;
+
+	/**
+	 * Execute task
+	 *
+	 * @param param parameters
+	 * @param w output writer
+	 * @throws Exception
+	 */
+	@Override
+	@Timed
+	public void execute(ImmutableMultimap<String, String> param, PrintWriter w)
+			throws Exception {
+		if (!FragmentIndex.isEnabled()) {
+			throw new WebApplicationException("No snapshot directory configured");
+		}
+		ImmutableCollection<String> graphs = param.get("graph");
+		if (graphs == null || graphs.isEmpty()) {
+			throw new WebApplicationException("No graph given");
+		}
+		String graph = graphs.asList().get(0);
+
+		ImmutableCollection<String> drop = param.get("drop");
+		if (drop != null && drop.contains("true")) {
+			Jobs.run(getName(), graph, param, w, job -> FragmentIndex.invalidate(graph));
+			return;
+		}
+		Jobs.run(getName(), graph, param, w, job -> FragmentIndex.compile(repo, graph, job));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param repo triple store
+	 */
+	public FragmentIndexTask(Repository repo) {
+		super("ldf-snapshot");
+		this.repo = repo;
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.tasks;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admin job running in the background, with progress information.
+ * 
+ * @author Bart.Hanssens
+ */
+public class Job {
+	public enum Status { QUEUED, RUNNING, DONE, PARTIAL, FAILED, CANCELLED }
+
+	// for work that is not part of a job and can't be cancelled
+	public final static Job NONE = new Job("0", "none", null);
+
+	private final String id;
+	private final String name;
+	private final String graph;
+
+	private final AtomicLong statements = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private volatile long totalBytes = 0;
+
+	private volatile Status status = Status.QUEUED;
+	private volatile String message = "";
+	private volatile String warning = null;
+	private volatile boolean cancelled = false;
+	private volatile long started = 0;
+	private volatile long finished = 0;
+
+	/**
+	 * Get job ID
+	 * 
+	 * @return ID
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Get named graph the job works on
+	 * 
+	 * @return graph or null for the whole store
+	 */
+	public String getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Get status
+	 * 
+	 * @return status
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Check if the job has finished (succesfully or not)
+	 * 
+	 * @return true if finished
+	 */
+	public boolean isFinished() {
+		return finished > 0;
+	}
+
+	/**
+	 * Add to the number of processed statements
+	 * 
+	 * @param n number of statements
+	 */
+	public void addStatements(long n) {
+		statements.addAndGet(n);
+	}
+
+	/**
+	 * Add to the number of bytes read
+	 * 
+	 * @param n number of bytes
+	 */
+	public void addBytes(long n) {
+		bytes.addAndGet(n);
+	}
+
+	/**
+	 * Set the total number of bytes to be read, used to estimate the remaining time
+	 * 
+	 * @param n number of bytes
+	 */
+	public void setTotalBytes(long n) {
+		totalBytes = n;
+	}
+
+	/**
+	 * Wrap an input stream, adding the bytes read to the progress
+	 * 
+	 * @param in input stream
+	 * @return input stream
+	 */
+	public InputStream track(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = in.read();
+				if (b >= 0) {
+					bytes.incrementAndGet();
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = in.read(b, off, len);
+				if (n > 0) {
+					bytes.addAndGet(n);
+				}
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Request cancellation
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Check if cancellation was requested
+	 * 
+	 * @return true if cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Throw exception when cancellation was requested
+	 */
+	public void checkCancelled() {
+		if (cancelled) {
+			throw new CancellationException("Job " + id + " cancelled");
+		}
+	}
+
+	/**
+	 * Get estimated time remaining, based on the number of bytes read
+	 * 
+	 * @return number of seconds or -1 if unknown
+	 */
+	public long getETA() {
+		long read = bytes.get();
+		if (status != Status.RUNNING || totalBytes <= 0 || read <= 0) {
+			return -1;
+		}
+		long elapsed = System.currentTimeMillis() - started;
+		return elapsed * (totalBytes - read) / read / 1000;
+	}
+
+	/**
+	 * Mark job as started
+	 */
+	void started() {
+		started = System.currentTimeMillis();
+		status = Status.RUNNING;
+	}
+
+	/**
+	 * Report that the job did not do all of its work, e.g. skipped invalid data.
+	 * A successful job will then finish as partial.
+	 * 
+	 * @param warning message
+	 */
+	public void warn(String warning) {
+		this.warning = warning;
+	}
+
+	/**
+	 * Mark job as finished
+	 * 
+	 * @param status final status
+	 * @param message message, e.g. error message
+	 */
+	void finished(Status status, String message) {
+		this.finished = System.currentTimeMillis();
+		if (status == Status.DONE && warning != null) {
+			this.status = Status.PARTIAL;
+			this.message = warning;
+			return;
+		}
+		this.status = status;
+		this.message = (message != null) ? message : "";
+	}
+
+	@Override
+	public String toString() {
+		long end = isFinished() ? finished : System.currentTimeMillis();
+		long secs = (started > 0) ? (end - started) / 1000 : 0;
+		StringBuilder buf = new StringBuilder(id).append(' ').append(name)
+			.append(" graph=").append((graph != null) ? graph : "*")
+			.append(" status=").append(status)
+			.append(" statements=").append(statements.get())
+			.append(" bytes=").append(bytes.get());
+		if (totalBytes > 0) {
+			buf.append('/').append(totalBytes);
+		}
+		buf.append(" seconds=").append(secs);
+		long eta = getETA();
+		if (eta >= 0) {
+			buf.append(" eta=").append(eta);
+		}
+		if (!message.isEmpty()) {
+			buf.append(" message=").append(message);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param id job ID
+	 * @param name task name
+	 * @param graph named graph or null for the whole store
+	 */
+	Job(String id, String name, String graph) {
+		this.id = id;
+		this.name = name;
+		this.graph = graph;
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.tasks;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper class for running admin tasks as background jobs.
+ * 
+ * Jobs on the same named graph are run one after another,
+ * jobs on the whole store wait for all other jobs.
+ * 
+ * @author Bart.Hanssens
+ */
+public class Jobs {
+	private final static Logger LOG = (Logger) LoggerFactory.getLogger(Jobs.class);
+
+	// number of finished jobs to keep
+	private final static int HISTORY = 100;
+
+	private final static AtomicLong IDS = new AtomicLong();
+	private final static Map<String, Job> JOBS = new LinkedHashMap<>();
+
+	private final static ReentrantReadWriteLock STORE = new ReentrantReadWriteLock(true);
+	private final static Map<String, Lock> GRAPHS = new ConcurrentHashMap<>();
+
+	private static ThreadPoolExecutor pool = null;
+
+	/**
+	 * Work to be done by a job
+	 */
+	@FunctionalInterface
+	public interface Work {
+		/**
+		 * Do the work, updating the progress and checking for cancellation
+		 * 
+		 * @param job job
+		 * @throws Exception 
+		 */
+		void run(Job job) throws Exception;
+	}
+
+	/**
+	 * Configure executor
+	 * 
+	 * @param threads number of jobs running at the same time
+	 * @param queue maximum number of waiting jobs
+	 */
+	public static void configure(int threads, int queue) {
+		pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, 
+									new ArrayBlockingQueue<>(queue), r -> {
+										Thread t = new Thread(r, "admin-job");
+										t.setDaemon(true);
+										return t;
+									});
+	}
+
+	/**
+	 * Stop accepting jobs and wait for running jobs to finish
+	 * 
+	 * @throws InterruptedException 
+	 */
+	public static void shutdown() throws InterruptedException {
+		if (pool != null) {
+			synchronized (JOBS) {
+				JOBS.values().forEach(Job::cancel);
+			}
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Register a new job
+	 * 
+	 * @param name task name
+	 * @param graph named graph or null
+	 * @return job
+	 */
+	private static Job create(String name, String graph) {
+		Job job = new Job(Long.toString(IDS.incrementAndGet()), name, graph);
+		synchronized (JOBS) {
+			// remove oldest finished jobs
+			int finished = 0;
+			List<Job> all = new ArrayList<>(JOBS.values());
+			for (int i = all.size() - 1; i >= 0; i--) {
+				if (all.get(i).isFinished() && ++finished >= HISTORY) {
+					JOBS.remove(all.get(i).getId());
+				}
+			}
+			JOBS.put(job.getId(), job);
+		}
+		return job;
+	}
+
+	/**
+	 * Run the work, waiting for conflicting jobs to finish first
+	 * 
+	 * @param job job
+	 * @param work work
+	 */
+	private static void execute(Job job, Work work) throws Exception {
+		String graph = job.getGraph();
+		Lock store = (graph == null) ? STORE.writeLock() : STORE.readLock();
+		Lock lock = (graph == null) ? null : GRAPHS.computeIfAbsent(graph, g -> new ReentrantLock(true));
+
+		store.lockInterruptibly();
+		try {
+			if (lock != null) {
+				lock.lockInterruptibly();
+			}
+			try {
+				job.checkCancelled();
+				job.started();
+				work.run(job);
+				job.checkCancelled();
+			} finally {
+				if (lock != null) {
+					lock.unlock();
+				}
+			}
+		} finally {
+			store.unlock();
+		}
+	}
+
+	/**
+	 * Run the work and set the final status
+	 * 
+	 * @param job job
+	 * @param work work
+	 */
+	private static void runJob(Job job, Work work) {
+		LOG.info("Starting job {}", job);
+		try {
+			execute(job, work);
+			job.finished(Job.Status.DONE, null);
+		} catch (CancellationException ce) {
+			job.finished(Job.Status.CANCELLED, null);
+		} catch (Exception e) {
+			LOG.error("Job {} failed", job.getId(), e);
+			job.finished(Job.Status.FAILED, e.getMessage());
+		}
+		LOG.info("Finished job {}", job);
+	}
+
+	/**
+	 * Run a task as a background job, unless the "sync" parameter is true.
+	 * 
+	 * @param name task name
+	 * @param graph named graph or null for the whole store
+	 * @param param task parameters
+	 * @param w task output
+	 * @param work work to be done
+	 * @throws Exception
+	 */
+	public static void run(String name, String graph, ImmutableMultimap<String, String> param,
+							PrintWriter w, Work work) throws Exception {
+		ImmutableCollection<String> sync = param.get("sync");
+		Job job = create(name, graph);
+
+		if (pool == null || (sync != null && sync.contains("true"))) {
+			try {
+				execute(job, work);
+			} catch (Exception e) {
+				job.finished(Job.Status.FAILED, e.getMessage());
+				throw e;
+			}
+			job.finished(Job.Status.DONE, null);
+			w.println(job);
+			return;
+		}
+		try {
+			pool.execute(() -> runJob(job, work));
+		} catch (RejectedExecutionException ree) {
+			job.finished(Job.Status.FAILED, "Too many jobs");
+			throw new WebApplicationException("Too many jobs", Response.Status.SERVICE_UNAVAILABLE);
+		}
+		w.println(job.getId());
+	}
+
+	/**
+	 * Check if the current thread runs a job on the whole store,
+	 * so no other job can write to the store at the same time.
+	 * 
+	 * @return true if running exclusively
+	 */
+	public static boolean isExclusive() {
+		return STORE.isWriteLockedByCurrentThread();
+	}
+
+	/**
+	 * Get job
+	 * 
+	 * @param id job ID
+	 * @return job or null
+	 */
+	public static Job get(String id) {
+		synchronized (JOBS) {
+			return JOBS.get(id);
+		}
+	}
+
+	/**
+	 * Get all (recent) jobs
+	 * 
+	 * @return collection of jobs
+	 */
+	public static Collection<Job> getAll() {
+		synchronized (JOBS) {
+			return new ArrayList<>(JOBS.values());
+		}
+	}
+}
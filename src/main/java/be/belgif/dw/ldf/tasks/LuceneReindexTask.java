@@ -25,17 +25,20 @@
  */
 package be.belgif.dw.ldf.tasks;
 
+import be.belgif.dw.ldf.helpers.SearchIndexer;
+
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMultimap;
 
 import io.dropwizard.servlets.tasks.Task;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.ws.rs.WebApplicationException;
 
 import org.eclipse.rdf4j.repository.Repository;
-import org.eclipse.rdf4j.repository.sail.SailRepository;
-import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.lucene.LuceneSail;
 
 import org.slf4j.Logger;
@@ -48,6 +51,8 @@ import org.slf4j.LoggerFactory;
  */
 public class LuceneReindexTask extends Task {
 	private final Repository repo;
+	private final String luceneDir;
+	private final double rate;
 	
 	private final Logger LOG = (Logger) LoggerFactory.getLogger(LuceneReindexTask.class);
 	
@@ -61,26 +66,60 @@ public class LuceneReindexTask extends Task {
 	 */
 	@Override
 	public void execute(ImmutableMultimap<String, String> param, PrintWriter w) throws Exception {
-		if (repo instanceof SailRepository) {
-			Sail sail = ((SailRepository) repo).getSail();
-			if (sail instanceof LuceneSail) {
-				LOG.info("Reindexing lucene sail");
-				((LuceneSail) sail).reindex();
-				LOG.info("Done");
-			}
-		} else {
-			throw new WebApplicationException("Not a Sail repository");
+		LuceneSail sail = SearchIndexer.getLuceneSail(repo);
+		if (sail == null) {
+			throw new WebApplicationException("Not a Lucene Sail repository");
+		}
+
+		// only reindex some graphs, e.g. the ones not indexed during import
+		ImmutableCollection<String> graphs = param.get("graph");
+		ImmutableCollection<String> dirty = param.get("dirty");
+		List<String> todo = new ArrayList<>();
+		if (graphs != null) {
+			todo.addAll(graphs);
+		}
+		if (dirty != null && dirty.contains("true")) {
+			todo.addAll(SearchIndexer.getDirty());
 		}
+		if (!todo.isEmpty() || (dirty != null && dirty.contains("true"))) {
+			// the full text index is shared by all graphs, so no other writes are allowed
+			Jobs.run(getName(), null, param, w, job -> {
+				for (String g: todo) {
+					SearchIndexer.reindex(repo, g, job);
+				}
+			});
+			return;
+		}
+
+		// build new index next to the current one, and swap when done
+		ImmutableCollection<String> shadow = param.get("shadow");
+		if (shadow != null && shadow.contains("true")) {
+			ImmutableCollection<String> r = param.get("rate");
+			double mbPerSec = (r != null && !r.isEmpty()) ? Double.parseDouble(r.asList().get(0)) : rate;
+			Jobs.run(getName(), null, param, w, 
+						job -> SearchIndexer.rebuild(repo, luceneDir, mbPerSec, job));
+			return;
+		}
+
+		Jobs.run(getName(), null, param, w, job -> {
+			LOG.info("Reindexing lucene sail");
+			sail.reindex();
+			LOG.info("Done");
+		});
 	}
 	
 	/**
 	 * Constructor
 	 * 
 	 * @param repo triple store
+	 * @param luceneDir configured lucene directory
+	 * @param rate maximum write rate for shadow rebuilds, in MB per second 
 	 */
-	public LuceneReindexTask(Repository repo) {
+	public LuceneReindexTask(Repository repo, String luceneDir, double rate) {
 		super("lucene-reindex");
 		this.repo = repo;
+		this.luceneDir = luceneDir;
+		this.rate = rate;
 	}
 
 }
@@ -25,6 +25,9 @@
  */
 package be.belgif.dw.ldf.tasks;
 
+import be.belgif.dw.ldf.helpers.SearchIndexer;
+import be.belgif.dw.ldf.helpers.StoreVersion;
+
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMultimap;
@@ -57,18 +60,19 @@ public class RDFClearTask extends Task {
 	/**
 	 * Import triples from file into RDF store.
 	 *
-	 * @param file input file path
+	 * @param target repository to be cleared
 	 * @param graph optional graph name
 	 */
-	private void clearGraph(String graph) {
+	private void clearGraph(Repository target, String graph) {
 		LOG.info("Clear graph {}", graph);
 
-		try (RepositoryConnection conn = repo.getConnection()) {
-			Resource ctx = (graph != null) ? repo.getValueFactory().createIRI(graph) : null;
+		try (RepositoryConnection conn = target.getConnection()) {
+			Resource ctx = (graph != null) ? target.getValueFactory().createIRI(graph) : null;
 
 			conn.begin();
 			conn.remove((Resource) null, null, null, ctx);
 			conn.commit();
+			StoreVersion.changed(graph);
 		} catch (RepositoryException rex) {
 			// will be rolled back automatically
 			throw new WebApplicationException("Clearing graph exception", rex);
@@ -92,7 +96,19 @@ public class RDFClearTask extends Task {
 		String graph = (graphs == null || graphs.isEmpty()) ? null
 				: graphs.asList().get(0);
 
-		clearGraph(graph);
+		ImmutableCollection<String> index = param.get("index");
+		if (index != null && index.contains("false")) {
+			if (graph == null) {
+				throw new WebApplicationException("Skipping full text index requires a graph");
+			}
+			// full text index to be updated later
+			Jobs.run(getName(), graph, param, w, job -> {
+				SearchIndexer.markDirty(graph);
+				clearGraph(SearchIndexer.getBaseRepository(repo), graph);
+			});
+			return;
+		}
+		Jobs.run(getName(), graph, param, w, job -> clearGraph(repo, graph));
 	}
 
 	/**
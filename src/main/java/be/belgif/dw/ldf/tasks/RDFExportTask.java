@@ -42,12 +42,14 @@ import java.util.Optional;
 
 import javax.ws.rs.WebApplicationException;
 import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
 
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.RDFHandlerWrapper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,8 +71,9 @@ public class RDFExportTask extends Task {
 	 *
 	 * @param file output file path
 	 * @param graph optional graph name
+	 * @param job job for progress and cancellation
 	 */
-	private void exportFile(Path file, String graph) {
+	private void exportFile(Path file, String graph, Job job) {
 		LOG.info("Trying to write  {}", file);
 
 		Optional<RDFFormat> format = Rio.getParserFormatForFileName(file.toString());
@@ -83,7 +86,14 @@ public class RDFExportTask extends Task {
 			Resource ctx = (graph != null) ? repo.getValueFactory().createIRI(graph) : null;
 			RDFWriter w = Rio.createWriter(format.get(), buf);
 
-			conn.export(w, ctx);
+			conn.export(new RDFHandlerWrapper(w) {
+				@Override
+				public void handleStatement(Statement st) {
+					job.checkCancelled();
+					super.handleStatement(st);
+					job.addStatements(1);
+				}
+			}, ctx);
 		} catch (IOException rex) {
 			// will be rolled back automatically
 			throw new WebApplicationException("Error exporting to file", rex);
@@ -112,10 +122,12 @@ public class RDFExportTask extends Task {
 		String graph = (graphs == null || graphs.isEmpty()) ? null
 				: graphs.asList().get(0);
 
-		for (String file : files.asList()) {
-			Path infile = Paths.get(exportDir, file);
-			exportFile(infile, graph);
-		}
+		Jobs.run(getName(), graph, param, w, job -> {
+			for (String file : files.asList()) {
+				Path infile = Paths.get(exportDir, file);
+				exportFile(infile, graph, job);
+			}
+		});
 	}
 
 	/**
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.tasks;
+
+import be.belgif.dw.ldf.helpers.SkosGenerator;
+import be.belgif.dw.ldf.helpers.StoreVersion;
+import be.belgif.dw.ldf.query.FragmentIndex;
+
+import com.codahale.metrics.annotation.Timed;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.util.RDFInserter;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.RDFHandlerWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generate a synthetic SKOS dataset, for testing and benchmarking.
+ * 
+ * @author Bart.Hanssens
+ */
+public class RDFGenerateTask extends Task {
+
+	private final Logger LOG = (Logger) LoggerFactory.getLogger(RDFGenerateTask.class);
+
+	private final String prefix;
+	private final String importDir;
+	private final Repository repo;
+	private final int batch;
+
+	/**
+	 * Wrap handler for progress and cancellation
+	 * 
+	 * @param h RDF handler
+	 * @param job job
+	 * @return wrapped handler
+	 */
+	private static RDFHandler track(RDFHandler h, Job job) {
+		return new RDFHandlerWrapper(h) {
+			@Override
+			public void handleStatement(Statement st) {
+				job.checkCancelled();
+				super.handleStatement(st);
+				job.addStatements(1);
+			}
+		};
+	}
+
+	/**
+	 * Write generated triples to a file in the import directory.
+	 * Formats without named graphs get one file per graph.
+	 * 
+	 * @param gen generator
+	 * @param file file name
+	 * @param graphs number of graphs
+	 * @param job job for progress and cancellation
+	 */
+	private void writeFile(SkosGenerator gen, String file, int graphs, Job job) {
+		Optional<RDFFormat> format = Rio.getWriterFormatForFileName(file);
+		if (!format.isPresent()) {
+			throw new WebApplicationException("File type not supported");
+		}
+		boolean quads = format.get().supportsContexts();
+		
+		try {
+			if (quads) {
+				writeFile(Paths.get(importDir, file), format.get(), gen, -1, job);
+			} else {
+				int dot = file.lastIndexOf('.');
+				for (int g = 0; g < graphs; g++) {
+					String name = file.substring(0, dot) + "-" + gen.getVocab(g) + file.substring(dot);
+					writeFile(Paths.get(importDir, name), format.get(), gen, g, job);
+				}
+			}
+		} catch (IOException ioe) {
+			throw new WebApplicationException("Error writing file", ioe);
+		}
+	}
+
+	/**
+	 * Write one or all graphs to a file
+	 * 
+	 * @param path output file
+	 * @param format RDF format
+	 * @param gen generator
+	 * @param g graph number, or -1 for all graphs
+	 * @param job job for progress and cancellation
+	 * @throws IOException 
+	 */
+	private void writeFile(Path path, RDFFormat format, SkosGenerator gen, int g, Job job) 
+			throws IOException {
+		LOG.info("Writing {}", path);
+		try (BufferedWriter buf = Files.newBufferedWriter(path)) {
+			RDFHandler h = track(Rio.createWriter(format, buf), job);
+			if (g < 0) {
+				gen.generate(h, true);
+			} else {
+				h.startRDF();
+				gen.generate(h, g, false);
+				h.endRDF();
+			}
+		}
+	}
+	
+	/**
+	 * Load generated triples directly into the store, committing in batches.
+	 * 
+	 * @param gen generator
+	 * @param g graph number
+	 * @param job job for progress and cancellation
+	 */
+	private void load(SkosGenerator gen, int g, Job job) {
+		String graph = gen.getGraph(g).stringValue();
+		LOG.info("Loading {}", graph);
+
+		try (RepositoryConnection conn = repo.getConnection()) {
+			RDFInserter inserter = new RDFInserter(conn);
+			inserter.enforceContext(gen.getGraph(g));
+
+			conn.begin();
+			gen.generate(new RDFHandlerWrapper(track(inserter, job)) {
+				private int n = 0;
+
+				@Override
+				public void handleStatement(Statement st) {
+					super.handleStatement(st);
+					if (++n % batch == 0) {
+						conn.commit();
+						conn.begin();
+					}
+				}
+			}, g, false);
+			conn.commit();
+		} catch (RepositoryException | RDFHandlerException rex) {
+			job.checkCancelled();
+			throw new WebApplicationException("Error loading", rex);
+		} finally {
+			StoreVersion.changed(graph);
+		}
+	}
+
+	/**
+	 * Get first value of a parameter
+	 * 
+	 * @param param parameters
+	 * @param name parameter name
+	 * @param def default value
+	 * @return value or default
+	 */
+	private static String getFirst(ImmutableMultimap<String, String> param, String name, 
+									String def) {
+		ImmutableCollection<String> vals = param.get(name);
+		return (vals == null || vals.isEmpty()) ? def : vals.asList().get(0);
+	}
+
+	/**
+	 * Execute task
+	 *
+	 * @param param parameters
+	 * @param w output writer
+	 * @throws Exception
+	 */
+	@Override
+	@Timed
+	public void execute(ImmutableMultimap<String, String> param, PrintWriter w)
+			throws Exception {
+		String file = getFirst(param, "file", null);
+		boolean load = Boolean.parseBoolean(getFirst(param, "load", "false"));
+		if ((file == null) == !load) {
+			throw new WebApplicationException("Either file name or load=true required");
+		}
+		if (file != null && file.lastIndexOf('.') <= 0) {
+			throw new WebApplicationException("File name without extension");
+		}
+
+		long seed;
+		int concepts, graphs, altLabels, depth;
+		double skew;
+		try {
+			seed = Long.parseLong(getFirst(param, "seed", "1"));
+			concepts = Integer.parseInt(getFirst(param, "concepts", "1000"));
+			graphs = Integer.parseInt(getFirst(param, "graphs", "1"));
+			altLabels = Integer.parseInt(getFirst(param, "altLabels", "1"));
+			depth = Integer.parseInt(getFirst(param, "depth", "4"));
+			skew = Double.parseDouble(getFirst(param, "skew", "1.0"));
+		} catch (NumberFormatException nfe) {
+			throw new WebApplicationException("Invalid parameter: " + nfe.getMessage(), nfe);
+		}
+		if (concepts < 1 || graphs < 1 || altLabels < 0 || depth < 1 || skew < 0) {
+			throw new WebApplicationException("Parameter out of range");
+		}
+
+		SkosGenerator gen = new SkosGenerator(prefix, seed);
+		gen.setConcepts(concepts);
+		gen.setGraphs(graphs);
+		gen.setLanguages(getFirst(param, "languages", "en").split(","));
+		gen.setAltLabels(altLabels);
+		gen.setDepth(depth);
+		gen.setSkew(skew);
+
+		Jobs.run(getName(), null, param, w, job -> {
+			if (load) {
+				for (int g = 0; g < graphs; g++) {
+					load(gen, g, job);
+					// read-only snapshot for serving fragments
+					if (FragmentIndex.isEnabled()) {
+						FragmentIndex.compile(repo, gen.getGraph(g).stringValue(), job);
+					}
+				}
+			} else {
+				writeFile(gen, file, graphs, job);
+			}
+		});
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param repo triple store
+	 * @param prefix base of the generated IRIs
+	 * @param inDir import directory
+	 * @param batch number of statements per commit
+	 */
+	public RDFGenerateTask(Repository repo, String prefix, String inDir, int batch) {
+		super("rdf-generate");
+		this.repo = repo;
+		this.prefix = prefix;
+		this.importDir = inDir;
+		this.batch = batch;
+	}
+}
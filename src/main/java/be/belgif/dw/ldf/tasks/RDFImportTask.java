@@ -25,27 +25,42 @@
  */
 package be.belgif.dw.ldf.tasks;
 
+import be.belgif.dw.ldf.helpers.BulkLoader;
+import be.belgif.dw.ldf.helpers.SearchIndexer;
+import be.belgif.dw.ldf.helpers.StoreVersion;
+import be.belgif.dw.ldf.query.FragmentIndex;
+
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMultimap;
 
 import io.dropwizard.servlets.tasks.Task;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import javax.ws.rs.WebApplicationException;
 
 import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.util.RDFInserter;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.RDFParser;
 import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.RDFHandlerWrapper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,14 +76,18 @@ public class RDFImportTask extends Task {
 
 	private final String importDir;
 	private final Repository repo;
+	private final int threads;
+	private final int batch;
 
 	/**
 	 * Import triples from file into RDF store.
 	 *
+	 * @param target repository to load the file into
 	 * @param file input file path
 	 * @param graph optional graph name
+	 * @param job job for progress and cancellation
 	 */
-	private void importFile(Path file, String graph) {
+	private void importFile(Repository target, Path file, String graph, Job job) {
 		LOG.info("Trying to load {}", file);
 
 		if (!Files.isReadable(file)) {
@@ -79,20 +98,49 @@ public class RDFImportTask extends Task {
 			throw new WebApplicationException("File type not supported");
 		}
 
-		try (RepositoryConnection conn = repo.getConnection()) {
-			Resource ctx = (graph != null) ? repo.getValueFactory().createIRI(graph) : null;
+		try (RepositoryConnection conn = target.getConnection();
+				InputStream in = job.track(Files.newInputStream(file))) {
+			Resource ctx = (graph != null) ? target.getValueFactory().createIRI(graph) : null;
+
+			RDFInserter inserter = new RDFInserter(conn);
+			if (ctx != null) {
+				inserter.enforceContext(ctx);
+			}
+			RDFParser parser = Rio.createParser(format.get(), target.getValueFactory());
+			parser.setRDFHandler(new RDFHandlerWrapper(inserter) {
+				@Override
+				public void handleStatement(Statement st) {
+					job.checkCancelled();
+					super.handleStatement(st);
+					job.addStatements(1);
+				}
+			});
 
 			conn.begin();
-			conn.add(file.toFile(), null, format.get(), ctx);
+			parser.parse(new BufferedInputStream(in), file.toUri().toString());
 			conn.commit();
-		} catch (RepositoryException | IOException rex) {
+			StoreVersion.changed(graph);
+		} catch (RepositoryException | RDFParseException | RDFHandlerException | IOException rex) {
 			// will be rolled back automatically
+			job.checkCancelled();
 			throw new WebApplicationException("Error importing", rex);
 		}
 
 		LOG.info("Done");
 	}
 
+	/**
+	 * Get first value of a parameter
+	 * 
+	 * @param param parameters
+	 * @param name parameter name
+	 * @return value or null
+	 */
+	private static String getFirst(ImmutableMultimap<String, String> param, String name) {
+		ImmutableCollection<String> vals = param.get(name);
+		return (vals == null || vals.isEmpty()) ? null : vals.asList().get(0);
+	}
+
 	/**
 	 * Execute task
 	 *
@@ -109,14 +157,48 @@ public class RDFImportTask extends Task {
 			throw new WebApplicationException("No file name given");
 		}
 
-		ImmutableCollection<String> graphs = param.get("graph");
-		String graph = (graphs == null || graphs.isEmpty()) ? null
-				: graphs.asList().get(0);
+		String graph = getFirst(param, "graph");
+		boolean bulk = Boolean.parseBoolean(getFirst(param, "bulk"));
+		boolean atomic = Boolean.parseBoolean(getFirst(param, "atomic"));
+		String n = getFirst(param, "batch");
+		boolean index = !"false".equals(getFirst(param, "index"));
+		if (!index && graph == null) {
+			throw new WebApplicationException("Skipping full text index requires a graph");
+		}
 
+		List<Path> paths = new ArrayList<>();
 		for (String file : files.asList()) {
-			Path infile = Paths.get(importDir, file);
-			importFile(infile, graph);
+			paths.add(Paths.get(importDir, file));
 		}
+
+		Jobs.run(getName(), graph, param, w, job -> {
+			// load directly into the store, full text index to be updated later
+			Repository target = repo;
+			if (!index) {
+				SearchIndexer.markDirty(graph);
+				target = SearchIndexer.getBaseRepository(repo);
+			}
+			// parallel parsing, committing in batches
+			if (bulk) {
+				Resource ctx = (graph != null) ? repo.getValueFactory().createIRI(graph) : null;
+				BulkLoader loader = new BulkLoader(target, threads, 
+										(n != null) ? Integer.parseInt(n) : batch, job);
+				loader.load(paths, ctx, atomic);
+			} else {
+				long total = 0;
+				for (Path p : paths) {
+					total += Files.isReadable(p) ? Files.size(p) : 0;
+				}
+				job.setTotalBytes(total);
+				for (Path p : paths) {
+					importFile(target, p, graph, job);
+				}
+			}
+			// read-only snapshot for serving fragments
+			if (graph != null && FragmentIndex.isEnabled()) {
+				FragmentIndex.compile(repo, graph, job);
+			}
+		});
 	}
 
 	/**
@@ -124,10 +206,14 @@ public class RDFImportTask extends Task {
 	 *
 	 * @param repo triple store
 	 * @param inDir import directory
+	 * @param threads maximum number of parser threads for bulk import
+	 * @param batch number of statements per commit for bulk import
 	 */
-	public RDFImportTask(Repository repo, String inDir) {
+	public RDFImportTask(Repository repo, String inDir, int threads, int batch) {
 		super("rdf-import");
 		this.repo = repo;
 		this.importDir = inDir;
+		this.threads = threads;
+		this.batch = batch;
 	}
 }
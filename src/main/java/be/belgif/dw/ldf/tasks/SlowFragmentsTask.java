@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017, Bart Hanssens <bart.hanssens@fedict.be>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package be.belgif.dw.ldf.tasks;
+
+import be.belgif.dw.ldf.helpers.FragmentTrace;
+import be.belgif.dw.ldf.helpers.SlowFragments;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.PrintWriter;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Show recent slow fragment requests, slowest first, or clear the list
+ * 
+ * @author Bart.Hanssens
+ */
+public class SlowFragmentsTask extends Task {
+
+	/**
+	 * Execute task
+	 * 
+	 * @param param parameters
+	 * @param w output writer
+	 * @throws Exception
+	 */
+	@Override
+	public void execute(ImmutableMultimap<String, String> param, PrintWriter w) throws Exception {
+		ImmutableCollection<String> clear = param.get("clear");
+		if (clear != null && !clear.isEmpty() && Boolean.parseBoolean(clear.asList().get(0))) {
+			SlowFragments.clear();
+			return;
+		}
+
+		int max = Integer.MAX_VALUE;
+		ImmutableCollection<String> maxs = param.get("max");
+		if (maxs != null && !maxs.isEmpty()) {
+			try {
+				max = Integer.parseInt(maxs.asList().get(0));
+			} catch (NumberFormatException nfe) {
+				max = 0;
+			}
+			if (max < 1) {
+				throw new WebApplicationException("Invalid maximum", Response.Status.BAD_REQUEST);
+			}
+		}
+		for (FragmentTrace trace: SlowFragments.getSlowest(max)) {
+			w.println(trace);
+		}
+	}
+
+	/**
+	 * Constructor
+	 */
+	public SlowFragmentsTask() {
+		super("ldf-slow");
+	}
+}
@@ -42,6 +42,7 @@ public class Hydra {
 		
 	public final static IRI COLLECTION;
 	public final static IRI FIRST;
+	public final static IRI FREETEXT;
 	public final static IRI ITEMS;
 	public final static IRI MAPPING;
 	public final static IRI MEMBER;
@@ -60,6 +61,7 @@ public class Hydra {
 		ValueFactory f = SimpleValueFactory.getInstance();
 		COLLECTION = f.createIRI(NAMESPACE, "Collection");
 		FIRST = f.createIRI(NAMESPACE, "first");
+		FREETEXT = f.createIRI(NAMESPACE, "freetextQuery");
 		ITEMS = f.createIRI(NAMESPACE, "itemsPerPage");
 		MAPPING = f.createIRI(NAMESPACE, "mapping");
 		MEMBER = f.createIRI(NAMESPACE, "member");